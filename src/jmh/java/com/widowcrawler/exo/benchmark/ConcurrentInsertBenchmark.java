@@ -0,0 +1,103 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.benchmark;
+
+import com.widowcrawler.exo.model.CompactSitemapURLSet;
+import com.widowcrawler.exo.model.SitemapURL;
+import com.widowcrawler.exo.model.StripedSitemapURLSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Many threads adding to one set, the way the children of an index are read in parallel. Runs with as many
+ * threads as there are processors; compare against -t 1 to see how each set scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(Threads.MAX)
+public class ConcurrentInsertBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"synchronizedHashSet", "concurrentHashSet", "stripedCompactSet"})
+    public String target;
+
+    @Param({"1000000"})
+    public int urls;
+
+    private List<SitemapURL> sitemapURLs;
+    private Set<SitemapURL> set;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = -1;
+    }
+
+    @Setup
+    public void setup() {
+        sitemapURLs = Fixtures.sitemapURLs(0, urls);
+    }
+
+    @Setup(Level.Iteration)
+    public void newSet() {
+        switch (target) {
+            case "synchronizedHashSet": set = Collections.synchronizedSet(new HashSet<>()); break;
+            case "concurrentHashSet":   set = ConcurrentHashMap.newKeySet(); break;
+            case "stripedCompactSet":   set = new StripedSitemapURLSet(CompactSitemapURLSet::new); break;
+            default: throw new IllegalArgumentException(target);
+        }
+    }
+
+    @Benchmark
+    public void insert(Cursor cursor, URLCounter counter) {
+        if (cursor.next < 0) {
+            cursor.next = ThreadLocalRandom.current().nextInt(urls);
+        }
+
+        for (int i = 0; i < BATCH; i++) {
+            set.add(sitemapURLs.get(cursor.next));
+            cursor.next = cursor.next + 1 == urls ? 0 : cursor.next + 1;
+        }
+
+        counter.urls += BATCH;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+import com.widowcrawler.exo.Exo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Fetches a sitemap index and all of its children from an HTTP server on localhost, end to end through
+ * the HTTP client, decompression, parsing and index expansion. When children are fetched in parallel the
+ * work happens on other threads, which gc.alloc.rate.norm doesn't count; use gc.churn instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ExoBenchmark {
+
+    @Param({"50000"})
+    public int urls;
+
+    @Param({"10"})
+    public int children;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private Exo exo;
+    private String indexURL;
+
+    @Setup
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(children));
+
+        String base = "http://localhost:" + server.getAddress().getPort();
+        String suffix = gzip ? ".xml.gz" : ".xml";
+        List<String> childLocations = new ArrayList<>();
+
+        int perChild = urls / children;
+
+        for (int i = 0; i < children; i++) {
+            String path = "/sitemap-" + i + suffix;
+            byte[] body = Fixtures.urlset(i * perChild, perChild, Fixtures.Style.CLEAN);
+
+            serve(path, gzip ? "application/x-gzip" : "application/xml", gzip ? Fixtures.gzip(body) : body);
+            childLocations.add(base + path);
+        }
+
+        serve("/sitemap_index.xml", "application/xml", Fixtures.sitemapIndex(childLocations));
+        server.start();
+
+        Exo.Builder builder = new Exo.Builder();
+
+        if (parallel) {
+            executor = Executors.newFixedThreadPool(children);
+            builder.withExecutor(executor);
+        }
+
+        exo = builder.build();
+        indexURL = base + "/sitemap_index.xml";
+    }
+
+    @TearDown
+    public void tearDown() {
+        exo.close();
+        server.stop(0);
+
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void fetch(URLCounter counter, Blackhole blackhole) throws Exception {
+        // calls to the consumer are serialized when children are fetched in parallel
+        exo.fetch(indexURL, sitemapURL -> {
+            counter.urls++;
+            blackhole.consume(sitemapURL);
+        });
+    }
+
+    private void serve(String path, String contentType, byte[] body) {
+        server.createContext(path, exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+}
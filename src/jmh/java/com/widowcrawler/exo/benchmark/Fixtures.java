@@ -0,0 +1,249 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.benchmark;
+
+import com.widowcrawler.exo.model.ChangeFreq;
+import com.widowcrawler.exo.model.SitemapURL;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Generated sitemap documents for the benchmarks. Everything is derived from a fixed seed, so runs on
+ * different machines parse the same bytes.
+ *
+ * CLEAN documents look like the output of a sitemap generator: one element per line, every field present,
+ * full W3C timestamps. MESSY documents have what real sites serve: a byte order mark, CRLF line endings,
+ * comments, CDATA and entity-escaped locations, padding inside elements, date-only and fractional
+ * timestamps, odd offsets, capitalized changefreqs, optional fields left out and mobile annotations.
+ * MIXED_CASE documents are CLEAN ones with capitalized element names, the spelling the parser can't find
+ * with a plain lookup.
+ */
+public final class Fixtures {
+
+    public enum Style { CLEAN, MESSY, MIXED_CASE }
+
+    private static final long SEED = 20150601L;
+
+    private static final String[] SECTIONS = { "products", "blog", "category/shoes", "help/articles", "news/2015" };
+    private static final String[] CHANGE_FREQS = { "daily", "weekly", "monthly", "hourly", "yearly", "never", "always" };
+    private static final String[] OFFSETS = { "Z", "+00:00", "-08:00", "+05:30", "+01:00", "-03:00" };
+    private static final String[] ELEMENTS = { "urlset", "url", "loc", "lastmod", "changefreq", "priority" };
+
+    private Fixtures() { }
+
+    public static byte[] urlset(int urls, Style style) {
+        return urlset(0, urls, style);
+    }
+
+    /**
+     * A urlset with count URLs, numbered from first. Different ranges give disjoint sets of locations.
+     */
+    public static byte[] urlset(int first, int count, Style style) {
+        Random random = new Random(SEED + first);
+        boolean messy = style == Style.MESSY;
+        String eol = messy ? "\r\n" : "\n";
+
+        StringBuilder sb = new StringBuilder(count * 220);
+
+        if (messy) {
+            sb.append('\uFEFF');
+        }
+
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>").append(eol);
+        sb.append("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"");
+        sb.append(messy ? eol + "        xmlns:mobile=\"http://www.google.com/schemas/sitemap-mobile/1.0\">" : ">");
+        sb.append(eol);
+
+        for (int i = first; i < first + count; i++) {
+            if (messy) {
+                appendMessyURL(sb, i, random, eol);
+            } else {
+                appendCleanURL(sb, i, random);
+            }
+        }
+
+        sb.append("</urlset>").append(eol);
+
+        String document = sb.toString();
+
+        if (style == Style.MIXED_CASE) {
+            for (String element : ELEMENTS) {
+                String capitalized = Character.toUpperCase(element.charAt(0)) + element.substring(1);
+                document = document
+                        .replace("<" + element + ">", "<" + capitalized + ">")
+                        .replace("<" + element + " ", "<" + capitalized + " ")
+                        .replace("</" + element + ">", "</" + capitalized + ">");
+            }
+        }
+
+        return document.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static byte[] sitemapIndex(List<String> childLocations) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+
+        for (String location : childLocations) {
+            sb.append("  <sitemap>\n");
+            sb.append("    <loc>").append(location).append("</loc>\n");
+            sb.append("    <lastmod>2015-06-01T00:00:00+00:00</lastmod>\n");
+            sb.append("  </sitemap>\n");
+        }
+
+        sb.append("</sitemapindex>\n");
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static byte[] gzip(byte[] document) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(document.length / 8);
+
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(document);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The same kind of URLs as the documents hold, already parsed, numbered from first.
+     */
+    public static List<SitemapURL> sitemapURLs(int first, int count) {
+        Random random = new Random(SEED + first);
+        List<SitemapURL> sitemapURLs = new ArrayList<>(count);
+        DateTime base = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+
+        try {
+            for (int i = first; i < first + count; i++) {
+                sitemapURLs.add(new SitemapURL.Builder()
+                        .withLocation(new URL("https://www.example.com" + path(i)))
+                        .withLastModified(base.plusSeconds(random.nextInt(365 * 86_400)))
+                        .withChangeFrequency(ChangeFreq.values()[random.nextInt(ChangeFreq.values().length)])
+                        .withPriority(random.nextInt(11) / 10.0D)
+                        .build());
+            }
+        } catch (MalformedURLException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        return sitemapURLs;
+    }
+
+    private static String path(int i) {
+        return "/" + SECTIONS[i % SECTIONS.length] + "/item-" + i + ".html";
+    }
+
+    private static void appendCleanURL(StringBuilder sb, int i, Random random) {
+        sb.append("  <url>\n");
+        sb.append("    <loc>https://www.example.com").append(path(i)).append("</loc>\n");
+        sb.append("    <lastmod>").append(timestamp(random, "+00:00", false)).append("</lastmod>\n");
+        sb.append("    <changefreq>").append(CHANGE_FREQS[random.nextInt(CHANGE_FREQS.length)]).append("</changefreq>\n");
+        sb.append("    <priority>0.").append(random.nextInt(10)).append("</priority>\n");
+        sb.append("  </url>\n");
+    }
+
+    private static void appendMessyURL(StringBuilder sb, int i, Random random, String eol) {
+        if (i % 97 == 0) {
+            sb.append("<!-- section ").append(i / 97).append(" -->").append(eol);
+        }
+
+        sb.append(i % 3 == 0 ? "\t<url>" : "  <url>").append(eol);
+
+        switch (i % 4) {
+            case 0:
+                sb.append("    <loc><![CDATA[https://www.example.com").append(path(i)).append("?ref=a&b=c]]></loc>");
+                break;
+            case 1:
+                sb.append("    <loc>https://www.example.com").append(path(i)).append("?utm_source=x&amp;utm_medium=y</loc>");
+                break;
+            case 2:
+                sb.append("    <loc>").append(eol).append("      https://WWW.Example.com/caf%c3%a9").append(path(i));
+                sb.append(eol).append("    </loc>");
+                break;
+            default:
+                sb.append("    <loc>https://www.example.com").append(path(i)).append("</loc>");
+        }
+        sb.append(eol);
+
+        switch (random.nextInt(4)) {
+            case 0:
+                sb.append("    <lastmod>").append(timestamp(random, null, false).substring(0, 10)).append("</lastmod>").append(eol);
+                break;
+            case 1:
+                sb.append("    <lastmod> ").append(timestamp(random, OFFSETS[random.nextInt(OFFSETS.length)], true)).append(" </lastmod>").append(eol);
+                break;
+            case 2:
+                sb.append("    <lastmod>").append(timestamp(random, OFFSETS[random.nextInt(OFFSETS.length)], false)).append("</lastmod>").append(eol);
+                break;
+            default:
+                // no lastmod
+        }
+
+        if (random.nextBoolean()) {
+            String changeFreq = CHANGE_FREQS[random.nextInt(CHANGE_FREQS.length)];
+            if (random.nextBoolean()) {
+                changeFreq = Character.toUpperCase(changeFreq.charAt(0)) + changeFreq.substring(1);
+            }
+            sb.append("    <changefreq>").append(changeFreq).append("</changefreq>").append(eol);
+        }
+
+        switch (random.nextInt(4)) {
+            case 0:  sb.append("    <priority>1</priority>").append(eol);     break;
+            case 1:  sb.append("    <priority>.5</priority>").append(eol);    break;
+            case 2:  sb.append("    <priority> 0.80 </priority>").append(eol); break;
+            default: // no priority
+        }
+
+        if (i % 10 == 0) {
+            sb.append("    <mobile:mobile/>").append(eol);
+        }
+
+        sb.append("  </url>").append(eol);
+
+        if (i % 50 == 0) {
+            sb.append(eol);
+        }
+    }
+
+    private static String timestamp(Random random, String offset, boolean fraction) {
+        String timestamp = String.format("2015-%02d-%02dT%02d:%02d:%02d",
+                1 + random.nextInt(12), 1 + random.nextInt(28),
+                random.nextInt(24), random.nextInt(60), random.nextInt(60));
+
+        if (fraction) {
+            timestamp += "." + random.nextInt(1000);
+        }
+
+        return offset == null ? timestamp : timestamp + offset;
+    }
+}
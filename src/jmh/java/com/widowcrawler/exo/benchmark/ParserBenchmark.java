@@ -0,0 +1,83 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.benchmark;
+
+import com.widowcrawler.exo.parse.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Parses an in-memory urlset. One operation is one document, so with -prof gc the allocation per URL is
+ * gc.alloc.rate.norm divided by the urls parameter.
+ *
+ * CLEAN and MIXED_CASE differ only in the spelling of element names, so comparing them shows what
+ * dispatching on names costs. Neither spelling is copied to lower case, so their allocation should be
+ * close; MIXED_CASE pays for the ignore-case scan in throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParserBenchmark {
+
+    @Param({"1000", "50000", "1000000"})
+    public int urls;
+
+    @Param({"CLEAN", "MESSY", "MIXED_CASE"})
+    public Fixtures.Style style;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private final Parser parser = new Parser();
+
+    private byte[] document;
+
+    @Setup
+    public void setup() {
+        document = Fixtures.urlset(urls, style);
+
+        if (gzip) {
+            document = Fixtures.gzip(document);
+        }
+    }
+
+    @Benchmark
+    public void parse(URLCounter counter, Blackhole blackhole) throws Exception {
+        parser.parse(new ByteArrayInputStream(document), sitemapURL -> {
+            counter.urls++;
+            blackhole.consume(sitemapURL);
+        });
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.benchmark;
+
+import com.widowcrawler.exo.model.CompactSitemapURLSet;
+import com.widowcrawler.exo.model.Sitemap;
+import com.widowcrawler.exo.model.SitemapURL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Hashing and set insertion of SitemapURLs, and merging of Sitemaps. The merge benchmarks merge two
+ * sitemaps that share half of their URLs, the way the children of an index often overlap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SitemapBenchmark {
+
+    @Param({"1000", "50000", "1000000"})
+    public int urls;
+
+    private List<SitemapURL> first;
+    private List<SitemapURL> second;
+    private Sitemap secondSitemap;
+
+    @Setup
+    public void setup() {
+        first = Fixtures.sitemapURLs(0, urls);
+        second = Fixtures.sitemapURLs(urls / 2, urls);
+        secondSitemap = new Sitemap(new HashSet<>(second));
+    }
+
+    /**
+     * SitemapURL caches its hash code, so each operation hashes freshly built copies. The figure includes
+     * building them, which normalizes the location.
+     */
+    @Benchmark
+    public void hash(URLCounter counter, Blackhole blackhole) {
+        for (SitemapURL sitemapURL : first) {
+            blackhole.consume(copy(sitemapURL).hashCode());
+            counter.urls++;
+        }
+    }
+
+    @Benchmark
+    public Set<SitemapURL> insertHashSet(URLCounter counter) {
+        Set<SitemapURL> set = new HashSet<>();
+        set.addAll(first);
+        counter.urls += first.size();
+        return set;
+    }
+
+    /**
+     * A set built from a whole collection is sized up front, so this is insertion without rehashing.
+     */
+    @Benchmark
+    public Set<SitemapURL> copyHashSet(URLCounter counter) {
+        Set<SitemapURL> set = new HashSet<>(first);
+        counter.urls += first.size();
+        return set;
+    }
+
+    @Benchmark
+    public Set<SitemapURL> insertCompactSet(URLCounter counter) {
+        Set<SitemapURL> set = new CompactSitemapURLSet();
+        set.addAll(first);
+        counter.urls += first.size();
+        return set;
+    }
+
+    @Benchmark
+    public Sitemap merge(URLCounter counter) {
+        Sitemap sitemap = new Sitemap(new HashSet<>(first));
+        sitemap.merge(secondSitemap);
+        counter.urls += first.size() + second.size();
+        return sitemap;
+    }
+
+    private static SitemapURL copy(SitemapURL sitemapURL) {
+        return new SitemapURL.Builder()
+                .withLocation(sitemapURL.getLocation())
+                .withLastModified(sitemapURL.getLastModified())
+                .withChangeFrequency(sitemapURL.getChangeFrequency())
+                .withPriority(sitemapURL.getPriority())
+                .withIsMobileContent(sitemapURL.isMobileContent())
+                .build();
+    }
+}
@@ -16,31 +16,500 @@
 
 package com.widowcrawler.exo;
 
+import com.widowcrawler.exo.cache.SitemapCache;
+import com.widowcrawler.exo.cache.Validators;
+import com.widowcrawler.exo.fetch.FetchScheduler;
+import com.widowcrawler.exo.metrics.HistogramMetrics;
+import com.widowcrawler.exo.metrics.MetricsListener;
+import com.widowcrawler.exo.model.CompactSitemapURLSet;
 import com.widowcrawler.exo.model.Sitemap;
+import com.widowcrawler.exo.model.SitemapURL;
+import com.widowcrawler.exo.model.StripedSitemapURLSet;
+import com.widowcrawler.exo.parse.ExpansionContext;
+import com.widowcrawler.exo.parse.IndexWatermarks;
 import com.widowcrawler.exo.parse.Parser;
+import com.widowcrawler.exo.parse.RobotsTxt;
+import com.widowcrawler.exo.parse.SitemapLoader;
+import com.widowcrawler.exo.retry.RetryPolicy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import javax.xml.stream.XMLStreamException;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * @author Scott Mansfield
+ *
+ * An Exo instance owns a single HTTP client, pooled and kept alive, that is used for every sitemap it
+ * fetches, including the children of sitemap indexes. Instances are thread-safe and meant to be shared.
+ * The static methods use a default instance that is created on first use.
  */
-public class Exo {
+public class Exo implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(Exo.class);
 
+    private static class DefaultInstance {
+        private static final Exo EXO = new Builder().build();
+    }
+
+    private final Client client;
+    private final boolean ownsClient;
+    private final Parser parser;
+    private final int maxConcurrentFetchesPerHost;
+    private final int maxDepth;
+    private final int maxChildSitemaps;
+    private final ExecutorService executor;
+    private final SitemapCache cache;
+    private final boolean compactSitemaps;
+    private final MetricsListener metrics;
+    private final RetryPolicy retryPolicy;
+    private final FetchScheduler scheduler;
+
+    public static class Builder {
+        private Client client;
+        private int maxConnections = 200;
+        private int maxConnectionsPerHost = 20;
+        private int connectTimeoutMillis = 10_000;
+        private int readTimeoutMillis = 30_000;
+        private ExecutorService executor;
+        private Integer maxConcurrentFetchesPerHost;
+        private SitemapCache cache;
+        private boolean compactSitemaps;
+        private MetricsListener metrics = MetricsListener.NONE;
+        private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+        private FetchScheduler scheduler;
+        private int maxDepth = Parser.DEFAULT_MAX_DEPTH;
+        private int maxChildSitemaps = Integer.MAX_VALUE;
+
+        /**
+         * Use the given client instead of creating one. The connection and timeout settings of this builder
+         * don't apply to it, and closing the Exo instance leaves it open.
+         */
+        public Builder withClient(Client client) {
+            this.client = client;
+            return this;
+        }
+
+        public Builder withMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder withMaxConnectionsPerHost(int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        public Builder withConnectTimeout(int connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        public Builder withReadTimeout(int readTimeoutMillis) {
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Fetch the child sitemaps of a sitemap index in parallel on the given executor. The async methods
+         * also parse each response on it, rather than on the HTTP client's callback thread.
+         */
+        public Builder withExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Cap on concurrent child sitemap fetches to a single host. Defaults to the per-host connection limit.
+         */
+        public Builder withMaxConcurrentFetchesPerHost(int maxConcurrentFetchesPerHost) {
+            this.maxConcurrentFetchesPerHost = maxConcurrentFetchesPerHost;
+            return this;
+        }
+
+        /**
+         * Remember the ETag and Last-Modified of fetched sitemaps, for {@link Exo#fetchIfModified}.
+         */
+        public Builder withCache(SitemapCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Back the Sitemaps returned by this instance with {@link CompactSitemapURLSet}s, which take a
+         * fraction of the memory of a HashSet for large sitemaps. They're striped (see
+         * {@link StripedSitemapURLSet}) so child sitemaps read in parallel can still add at once.
+         */
+        public Builder withCompactSitemaps(boolean compactSitemaps) {
+            this.compactSitemaps = compactSitemaps;
+            return this;
+        }
+
+        /**
+         * Report fetch latencies, document stats, retries and failures to the given listener, e.g. a
+         * {@link HistogramMetrics}.
+         */
+        public Builder withMetrics(MetricsListener metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * How failed child sitemaps are retried, by the blocking and the async methods alike. The sitemap
+         * that was asked for is not retried.
+         */
+        public Builder withRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Send every request through the given scheduler, which paces requests to each host and pauses a
+         * host that answers 429 or 503.
+         */
+        public Builder withFetchScheduler(FetchScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * How deep sitemap indexes nested in sitemap indexes are expanded. The sitemap that was asked for is
+         * at depth 0, so 1 expands a single level of index.
+         */
+        public Builder withMaxDepth(int maxDepth) {
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * Cap on the child sitemaps fetched while expanding one sitemap, across all levels. Children past it
+         * are skipped. Unlimited by default.
+         */
+        public Builder withMaxChildSitemaps(int maxChildSitemaps) {
+            this.maxChildSitemaps = maxChildSitemaps;
+            return this;
+        }
+
+        public Exo build() {
+            if (client != null) {
+                return new Exo(client, false, this);
+            }
+
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+
+            ClientConfig config = new ClientConfig()
+                    .connectorProvider(new ApacheConnectorProvider())
+                    .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                    .property(ClientProperties.CONNECT_TIMEOUT, connectTimeoutMillis)
+                    .property(ClientProperties.READ_TIMEOUT, readTimeoutMillis);
+
+            return new Exo(ClientBuilder.newClient(config), true, this);
+        }
+    }
+
+    private Exo(Client client, boolean ownsClient, Builder builder) {
+        this.client = client;
+        this.ownsClient = ownsClient;
+        this.executor = builder.executor;
+        this.cache = builder.cache;
+        this.compactSitemaps = builder.compactSitemaps;
+        this.metrics = builder.metrics;
+        this.retryPolicy = builder.retryPolicy;
+        this.scheduler = builder.scheduler;
+
+        this.maxConcurrentFetchesPerHost = builder.maxConcurrentFetchesPerHost == null
+                ? builder.maxConnectionsPerHost
+                : builder.maxConcurrentFetchesPerHost;
+        this.maxDepth = builder.maxDepth;
+        this.maxChildSitemaps = builder.maxChildSitemaps;
+
+        this.parser = new Parser(this::fetch, executor, maxConcurrentFetchesPerHost, metrics, retryPolicy,
+                maxDepth, maxChildSitemaps);
+    }
+
     public static Sitemap parse(String url) throws SitemapParseException, IOException {
+        return DefaultInstance.EXO.fetch(url);
+    }
+
+    /**
+     * Parses the sitemap at the given location, fetching the child sitemaps of a sitemap index in parallel
+     * on the given executor with at most maxConcurrentFetchesPerHost fetches in flight to any one host.
+     */
+    public static Sitemap parse(String url, ExecutorService executor, int maxConcurrentFetchesPerHost)
+            throws SitemapParseException, IOException {
+
+        final Exo exo = DefaultInstance.EXO;
+        final Set<SitemapURL> sitemapURLs = ConcurrentHashMap.newKeySet();
+
+        exo.fetch(url, new Parser(exo::fetch, executor, maxConcurrentFetchesPerHost, exo.metrics, exo.retryPolicy),
+                Parser.concurrent(sitemapURLs::add));
+
+        return new Sitemap(sitemapURLs);
+    }
+
+    public static Sitemap parse(InputStream inputStream) throws SitemapParseException, IOException {
+        return DefaultInstance.EXO.read(inputStream);
+    }
+
+    /**
+     * Streams every URL of the sitemap at the given location to the consumer as it is parsed. If the location
+     * is a sitemap index, the URLs of all of its child sitemaps are streamed as well.
+     */
+    public static void parse(String url, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException {
+        DefaultInstance.EXO.fetch(url, consumer);
+    }
+
+    public static void parse(InputStream inputStream, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException {
+        DefaultInstance.EXO.read(inputStream, consumer);
+    }
+
+    public static Sitemap parse(Path path) throws SitemapParseException, IOException {
+        return DefaultInstance.EXO.read(path);
+    }
+
+    /**
+     * Streams every URL of a local sitemap file to the consumer, parsing large files in parallel on the
+     * common fork/join pool. See {@link #read(Path, Consumer)}.
+     */
+    public static void parse(Path path, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException {
+        DefaultInstance.EXO.read(path, consumer);
+    }
+
+    public static CompletableFuture<Sitemap> parseAsync(String url) {
+        return DefaultInstance.EXO.fetchAsync(url);
+    }
+
+    public static CompletableFuture<Void> parseAsync(String url, Consumer<SitemapURL> consumer) {
+        return DefaultInstance.EXO.fetchAsync(url, consumer);
+    }
+
+    public Sitemap fetch(String url) throws SitemapParseException, IOException {
+        final Set<SitemapURL> sitemapURLs = newSitemapURLSet();
+
+        fetch(url, Parser.concurrent(sitemapURLs::add));
+
+        return new Sitemap(sitemapURLs);
+    }
+
+    /**
+     * Streams every URL of the sitemap at the given location to the consumer as it is parsed. If the location
+     * is a sitemap index, the URLs of all of its child sitemaps are streamed as well.
+     */
+    public void fetch(String url, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException {
+        fetch(url, parser, consumer);
+    }
+
+    /**
+     * Incremental expansion of a sitemap index: only the child sitemaps whose &lt;lastmod&gt; is after their
+     * watermark are fetched, and the watermarks are advanced as they are read. See {@link IndexWatermarks}.
+     */
+    public Sitemap fetch(String url, IndexWatermarks watermarks) throws SitemapParseException, IOException {
+        final Set<SitemapURL> sitemapURLs = newSitemapURLSet();
+
+        fetch(url, Parser.concurrent(sitemapURLs::add), watermarks);
+
+        return new Sitemap(sitemapURLs);
+    }
+
+    public void fetch(String url, Consumer<SitemapURL> consumer, IndexWatermarks watermarks)
+            throws SitemapParseException, IOException {
+
+        read(url, get(url, request(url)), (body, charset) -> parser.parse(body, charset, consumer, watermarks, locationOf(url)));
+    }
+
+    /**
+     * Like {@link #fetch(String, Consumer)}, but sends If-None-Match and If-Modified-Since with the
+     * validators in the cache from the last fetch of the URL. If the server answers 304 Not Modified the
+     * document isn't parsed, nothing is sent to the consumer and this returns false. The child sitemaps of
+     * a sitemap index are fetched the same way, so only the URLs of changed documents are streamed.
+     *
+     * Children change without their index changing, so a sitemap index itself is always fetched in full,
+     * its validators aren't kept. The validators of the documents read are only stored once the whole
+     * tree was read; after a failure every document is fetched in full again next time.
+     *
+     * Without a cache this is the same as fetch and always returns true.
+     */
+    public boolean fetchIfModified(String url, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException {
+        final ConditionalFetch fetch = new ConditionalFetch();
+        final boolean modified = fetch.fetch(url, consumer);
+
+        fetch.store();
+
+        return modified;
+    }
+
+    /**
+     * One conditional expansion of a sitemap tree. Its children are loaded through it, so that their
+     * validators are held back with the root's until the expansion has succeeded.
+     */
+    private class ConditionalFetch implements SitemapLoader {
+        private final Map<String, Validators> fresh = new ConcurrentHashMap<>();
+        private final Parser conditionalParser = new Parser(this, executor, maxConcurrentFetchesPerHost, metrics,
+                retryPolicy, maxDepth, maxChildSitemaps);
+
+        @Override
+        public void load(String url, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException {
+            fetch(url, consumer);
+        }
+
+        boolean fetch(String url, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException {
+            Invocation.Builder request = request(url);
+            Validators validators = null;
+
+            if (cache != null) {
+                try {
+                    validators = cache.get(url);
+                } catch (IOException ex) {
+                    logger.warn("Could not read cache entry for " + url, ex);
+                }
+            }
+
+            if (validators != null) {
+                if (validators.getETag() != null) {
+                    request.header(HttpHeaders.IF_NONE_MATCH, validators.getETag());
+                }
+
+                if (validators.getLastModified() != null) {
+                    request.header(HttpHeaders.IF_MODIFIED_SINCE, validators.getLastModified());
+                }
+            }
+
+            Response response = get(url, request);
+
+            if (response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+                logger.debug("Not modified: " + url);
+                response.close();
+                return false;
+            }
+
+            Validators received = new Validators(
+                    response.getHeaderString(HttpHeaders.ETAG),
+                    response.getHeaderString(HttpHeaders.LAST_MODIFIED));
+
+            IndexDetector detector = new IndexDetector();
+            read(url, response, (body, charset) -> conditionalParser.parse(body, charset, consumer, detector, locationOf(url)));
+
+            fresh.put(url, detector.isIndex() ? new Validators(null, null) : received);
+            return true;
+        }
+
+        void store() {
+            if (cache == null) {
+                return;
+            }
+
+            fresh.forEach((url, validators) -> {
+                try {
+                    if (validators.isEmpty()) {
+                        cache.remove(url);
+                    } else {
+                        cache.put(url, validators);
+                    }
+                } catch (IOException ex) {
+                    logger.warn("Could not write cache entry for " + url, ex);
+                }
+            });
+        }
+    }
+
+    /**
+     * Lets every child sitemap through, noting that the document has some, i.e. that it's a sitemap index.
+     */
+    private static class IndexDetector extends IndexWatermarks {
+        private volatile boolean index;
+
+        @Override
+        public boolean isModified(URL sitemapURL, DateTime lastModified) {
+            index = true;
+            return true;
+        }
+
+        @Override
+        public void advance(URL sitemapURL, DateTime lastModified) {
+        }
+
+        boolean isIndex() {
+            return index;
+        }
+    }
+
+    // Child sitemaps are read in parallel and add to the set directly, so it has to be thread safe
+    private Set<SitemapURL> newSitemapURLSet() {
+        return compactSitemaps ? new StripedSitemapURLSet(CompactSitemapURLSet::new) : ConcurrentHashMap.newKeySet();
+    }
+
+    public Sitemap read(InputStream inputStream) throws SitemapParseException, IOException {
+        final Set<SitemapURL> sitemapURLs = newSitemapURLSet();
+
+        read(inputStream, Parser.concurrent(sitemapURLs::add));
+
+        return new Sitemap(sitemapURLs);
+    }
+
+    public void read(InputStream inputStream, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException {
         try {
-            Invocation invocation = ClientBuilder.newClient().target(url).request().buildGet();
+            parser.parse(inputStream, consumer);
 
-            String data = invocation.invoke().readEntity(String.class);
+        } catch (XMLStreamException ex) {
+            logger.error("Error reading XML stream", ex);
+            throw new IOException("Error reading XML stream", ex);
+        }
+    }
+
+    public Sitemap read(Path path) throws SitemapParseException, IOException {
+        final Set<SitemapURL> sitemapURLs = newSitemapURLSet();
 
-            return new Parser().parse(data);
+        read(path, Parser.concurrent(sitemapURLs::add));
+
+        return new Sitemap(sitemapURLs);
+    }
+
+    /**
+     * Streams the URLs of a local sitemap file to the consumer. A large urlset is memory mapped and parsed
+     * in chunks on the common fork/join pool, so the consumer is called from its threads, one at a time
+     * unless marked {@link Parser#concurrent}. Other files are read sequentially on the calling thread.
+     */
+    public void read(Path path, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException {
+        try {
+            parser.parse(path, consumer, ForkJoinPool.commonPool());
 
         } catch (XMLStreamException ex) {
             logger.error("Error reading XML stream", ex);
@@ -48,13 +517,387 @@ public class Exo {
         }
     }
 
-    public static Sitemap parse(InputStream inputStream) throws SitemapParseException, IOException {
+    /**
+     * Fetches and parses the sitemap at the given location without blocking the calling thread. The child
+     * sitemaps of a sitemap index are fetched concurrently, each as its own future.
+     */
+    public CompletableFuture<Sitemap> fetchAsync(String url) {
+        final Set<SitemapURL> sitemapURLs = newSitemapURLSet();
+
+        return fetchAsync(url, Parser.concurrent(sitemapURLs::add)).thenApply(done -> new Sitemap(sitemapURLs));
+    }
+
+    /**
+     * Streams every URL of the sitemap at the given location, and of its child sitemaps if it is a sitemap
+     * index, to the consumer without blocking the calling thread. Calls to the consumer are serialized but
+     * may come from different threads, unless the consumer is marked {@link Parser#concurrent}. The returned
+     * future completes once every document has been parsed.
+     */
+    public CompletableFuture<Void> fetchAsync(String url, Consumer<SitemapURL> consumer) {
+        return fetchDocumentAsync(url, Parser.synchronize(consumer), parser.newExpansion(locationOf(url)));
+    }
+
+    /**
+     * Fetches the robots.txt of a site and expands every sitemap its Sitemap lines list, concurrently, into
+     * one Sitemap. The site is either a host name, which is fetched over https, or an origin such as
+     * http://www.example.com:8080. A site without a robots.txt has no sitemaps.
+     */
+    public Sitemap discover(String site) throws SitemapParseException, IOException {
+        return await(discoverAsync(site));
+    }
+
+    /**
+     * Streams the URLs of every sitemap listed in the robots.txt of a site, see {@link #discover(String)}.
+     * Every sitemap is fetched once even if it's listed several times or by more than one index, but a URL
+     * listed in two sitemaps is streamed twice. Calls to the consumer are serialized.
+     */
+    public void discover(String site, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException {
+        await(discoverAsync(site, consumer));
+    }
+
+    public CompletableFuture<Sitemap> discoverAsync(String site) {
+        final Set<SitemapURL> sitemapURLs = newSitemapURLSet();
+
+        return discoverAsync(site, Parser.concurrent(sitemapURLs::add)).thenApply(done -> new Sitemap(sitemapURLs));
+    }
+
+    public CompletableFuture<Void> discoverAsync(String site, Consumer<SitemapURL> consumer) {
+        final URL robotsURL;
+
+        try {
+            robotsURL = robotsLocation(site);
+        } catch (MalformedURLException ex) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+
+        final Consumer<SitemapURL> sink = Parser.synchronize(consumer);
+
+        return getAsync(robotsURL.toString()).thenCompose(response -> {
+            final List<URL> sitemaps;
+
+            try {
+                sitemaps = readRobots(robotsURL, response);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+
+            // One expansion for all of them, so an index listed in robots.txt and by another index is
+            // only expanded once
+            final ExpansionContext context = parser.newExpansion(null);
+
+            return CompletableFuture.allOf(sitemaps.stream()
+                    .filter(context::visit)
+                    .map(sitemap -> fetchDocumentAsync(sitemap.toString(), sink, context))
+                    .toArray(CompletableFuture[]::new));
+        });
+    }
+
+    private static URL robotsLocation(String site) throws MalformedURLException {
+        URL origin = site.contains("://") ? new URL(site) : new URL("https://" + site);
+        return new URL(origin, "/robots.txt");
+    }
+
+    private List<URL> readRobots(URL robotsURL, Response response) throws IOException {
+        try {
+            if (response.getStatusInfo().getFamily() == Response.Status.Family.CLIENT_ERROR) {
+                logger.info("No robots.txt at " + robotsURL + ", status " + response.getStatus());
+                return new ArrayList<>();
+            }
+
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                String message = String.format("Unexpected status %d fetching %s", response.getStatus(), robotsURL);
+                logger.error(message);
+                throw new HttpStatusException(message, response.getStatus(),
+                        retryAfterMillis(response.getHeaderString(HttpHeaders.RETRY_AFTER)));
+            }
+
+            try (InputStream body = response.readEntity(InputStream.class)) {
+                List<URL> sitemaps = RobotsTxt.sitemaps(body, robotsURL);
+                logger.debug("Found " + sitemaps.size() + " sitemaps in " + robotsURL);
+                return sitemaps;
+            }
+
+        } finally {
+            response.close();
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws SitemapParseException, IOException {
+        try {
+            return future.get();
+
+        } catch (InterruptedException ex) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for sitemaps");
+
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+
+            if (cause instanceof SitemapParseException) {
+                throw (SitemapParseException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+    private CompletableFuture<Void> fetchDocumentAsync(String url, Consumer<SitemapURL> consumer,
+                                                       ExpansionContext context) {
+        final CompletableFuture<Response> response = getAsync(url);
+
+        final Function<Response, CompletableFuture<Void>> expand = result -> {
+            final List<URL> children = new ArrayList<>();
+
+            try {
+                read(url, result, (body, charset) -> parser.parseDocument(body, charset, consumer,
+                        (child, lastModified) -> children.add(child), context.getDepth()));
+
+            } catch (SitemapParseException | IOException ex) {
+                throw new CompletionException(ex);
+            }
+
+            // Admitted only once the document was read, so a retry of it doesn't find them already visited
+            final ExpansionContext next = context.next();
+
+            return CompletableFuture.allOf(children.stream()
+                    .filter(context::admit)
+                    .map(child -> fetchChildAsync(child.toString(), consumer, next))
+                    .toArray(CompletableFuture[]::new));
+        };
+
+        // The body is read as it's parsed, so hand that off to the executor if there is one
+        return executor == null
+                ? response.thenCompose(expand)
+                : response.thenComposeAsync(expand, executor);
+    }
+
+    private CompletableFuture<Void> fetchChildAsync(String url, Consumer<SitemapURL> consumer,
+                                                    ExpansionContext context) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        retryPolicy.callAsync(() -> fetchDocumentAsync(url, consumer, context),
+                (attempt, cause, delayMillis) -> metrics.retried(url, attempt, cause))
+                .whenComplete((done, error) -> {
+                    if (error == null) {
+                        result.complete(null);
+                        return;
+                    }
+
+                    // Same failure as the blocking methods report
+                    String message = String.format("Failed to retrieve sitemap of sitemap index at %s", url);
+                    logger.error(message);
+                    result.completeExceptionally(new SitemapParseException(message, error.getCause()));
+                });
+
+        return result;
+    }
+
+    private Invocation.Builder request(String url) {
+        // Compressed bodies are detected and inflated by the parser as it reads
+        return client.target(url).request().header(HttpHeaders.ACCEPT_ENCODING, "gzip");
+    }
+
+    private Response get(String url, Invocation.Builder request) throws IOException {
+        final FetchScheduler.Permit permit = acquire(url);
+        final long start = System.nanoTime();
+
         try {
-            return new Parser().parse(inputStream);
+            Response response = request.get();
+            metrics.fetched(url, response.getStatus(), System.nanoTime() - start);
+            signal(url, response);
+            return response;
+
+        } catch (RuntimeException ex) {
+            metrics.failed(url, ex);
+            throw ex;
+
+        } finally {
+            release(permit);
+        }
+    }
+
+    private CompletableFuture<Response> getAsync(String url) {
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+
+        final CompletableFuture<FetchScheduler.Permit> permit = scheduler == null
+                ? CompletableFuture.completedFuture(null)
+                : scheduler.acquire(hostOf(url));
+
+        permit.thenAccept(granted -> {
+            final long start = System.nanoTime();
+
+            try {
+                request(url).async().get(new InvocationCallback<Response>() {
+                    @Override
+                    public void completed(Response result) {
+                        release(granted);
+                        metrics.fetched(url, result.getStatus(), System.nanoTime() - start);
+                        signal(url, result);
+                        response.complete(result);
+                    }
+
+                    @Override
+                    public void failed(Throwable throwable) {
+                        release(granted);
+                        metrics.failed(url, throwable);
+                        response.completeExceptionally(throwable);
+                    }
+                });
+
+            } catch (RuntimeException ex) {
+                release(granted);
+                metrics.failed(url, ex);
+                response.completeExceptionally(ex);
+            }
+        });
+
+        return response;
+    }
+
+    private FetchScheduler.Permit acquire(String url) throws IOException {
+        if (scheduler == null) {
+            return null;
+        }
+
+        final CompletableFuture<FetchScheduler.Permit> permit = scheduler.acquire(hostOf(url));
+
+        try {
+            return permit.get();
+
+        } catch (InterruptedException ex) {
+            permit.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to fetch " + url);
+
+        } catch (ExecutionException ex) {
+            throw new IOException("Could not schedule fetch of " + url, ex.getCause());
+        }
+    }
+
+    private static void release(FetchScheduler.Permit permit) {
+        if (permit != null) {
+            permit.close();
+        }
+    }
+
+    /**
+     * Tells the scheduler whether the host wants us to slow down.
+     */
+    private void signal(String url, Response response) {
+        if (scheduler == null) {
+            return;
+        }
+
+        int status = response.getStatus();
+
+        if (status == 429 || status == Response.Status.SERVICE_UNAVAILABLE.getStatusCode()) {
+            scheduler.backOff(hostOf(url), retryAfterMillis(response.getHeaderString(HttpHeaders.RETRY_AFTER)));
+        } else if (response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+            scheduler.recovered(hostOf(url));
+        }
+    }
+
+    private static String hostOf(String url) {
+        URL location = locationOf(url);
+        return location == null ? "" : location.getHost().toLowerCase(Locale.ROOT);
+    }
+
+    private static URL locationOf(String url) {
+        try {
+            return new URL(url);
+        } catch (MalformedURLException ex) {
+            // The client reports the bad URL when it's fetched
+            return null;
+        }
+    }
+
+    private void fetch(String url, Parser parser, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException {
+        read(url, get(url, request(url)), (body, charset) -> parser.parse(body, charset, consumer, null, locationOf(url)));
+    }
+
+    private interface BodyReader {
+        void read(InputStream body, String charset) throws XMLStreamException, SitemapParseException;
+    }
+
+    private void read(String url, Response response, BodyReader reader) throws SitemapParseException, IOException {
+        try {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                String message = String.format("Unexpected status %d fetching %s", response.getStatus(), url);
+                logger.error(message);
+                throw new HttpStatusException(message, response.getStatus(),
+                        retryAfterMillis(response.getHeaderString(HttpHeaders.RETRY_AFTER)));
+            }
+
+            // A charset on the Content-Type wins over the XML declaration. Without one, the parser
+            // works the encoding out from the document itself.
+            MediaType mediaType = response.getMediaType();
+            String charset = mediaType == null ? null : mediaType.getParameters().get(MediaType.CHARSET_PARAMETER);
+
+            try (InputStream body = response.readEntity(InputStream.class)) {
+                reader.read(body, charset);
+            }
 
         } catch (XMLStreamException ex) {
+            metrics.failed(url, ex);
             logger.error("Error reading XML stream", ex);
             throw new IOException("Error reading XML stream", ex);
+
+        } catch (SitemapParseException | IOException | RuntimeException ex) {
+            metrics.failed(url, ex);
+            throw ex;
+
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Retry-After is either a number of seconds or an HTTP date.
+     *
+     * @return the delay it asks for, or -1 if there is none or it can't be read
+     */
+    static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1L;
+        }
+
+        String value = retryAfter.trim();
+
+        try {
+            return Math.max(0L, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (NumberFormatException ex) {
+            // not delta-seconds, try a date
+        }
+
+        try {
+            long until = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0L, until - System.currentTimeMillis());
+        } catch (DateTimeParseException ex) {
+            logger.warn("Unreadable Retry-After: " + retryAfter);
+            return -1L;
+        }
+    }
+
+    /**
+     * Closes the HTTP client and its connection pool, unless the client was supplied to the builder.
+     */
+    @Override
+    public void close() {
+        if (ownsClient) {
+            client.close();
         }
     }
 }
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo;
+
+import java.io.IOException;
+
+/**
+ * @author Scott Mansfield
+ *
+ * A sitemap was answered with a status other than 2xx. Carries the status, and the Retry-After the server
+ * sent with it, so retries can tell a busy server from a missing document.
+ */
+public class HttpStatusException extends IOException {
+
+    private final int status;
+    private final long retryAfterMillis;
+
+    public HttpStatusException(String message, int status) {
+        this(message, status, -1L);
+    }
+
+    public HttpStatusException(String message, int status, long retryAfterMillis) {
+        super(message);
+        this.status = status;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return how long the server asked to wait before trying again, or -1 if it didn't say
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
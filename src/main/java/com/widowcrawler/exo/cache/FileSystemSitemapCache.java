@@ -0,0 +1,189 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * @author Scott Mansfield
+ *
+ * A SitemapCache that keeps one small properties file per URL in a directory, so it survives restarts.
+ * At most maxEntries are kept, the least recently used ones are evicted first. Recency is recorded in
+ * the files' modification times, so it carries over between runs too.
+ */
+public class FileSystemSitemapCache implements SitemapCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemSitemapCache.class);
+
+    private static final String ENTRY_SUFFIX = ".properties";
+
+    private static final String URL_KEY = "url";
+    private static final String ETAG_KEY = "etag";
+    private static final String LAST_MODIFIED_KEY = "lastModified";
+
+    private final Path directory;
+    private final int maxEntries;
+
+    // file name -> file, in least to most recently used order
+    private final LinkedHashMap<String, Path> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public FileSystemSitemapCache(Path directory, int maxEntries) throws IOException {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+
+        this.directory = Files.createDirectories(directory);
+        this.maxEntries = maxEntries;
+
+        List<Path> existing;
+        try (Stream<Path> files = Files.list(directory)) {
+            existing = files
+                    .filter(file -> file.getFileName().toString().endsWith(ENTRY_SUFFIX))
+                    .sorted(Comparator.comparing(FileSystemSitemapCache::lastModifiedTime))
+                    .collect(Collectors.toList());
+        }
+
+        existing.forEach(file -> entries.put(file.getFileName().toString(), file));
+        evict();
+    }
+
+    @Override
+    public synchronized Validators get(String url) throws IOException {
+        Path file = entries.get(fileName(url));
+
+        if (file == null) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (NoSuchFileException ex) {
+            entries.remove(file.getFileName().toString());
+            return null;
+        }
+
+        // guard against hash collisions
+        if (!url.equals(properties.getProperty(URL_KEY))) {
+            return null;
+        }
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+        return new Validators(properties.getProperty(ETAG_KEY), properties.getProperty(LAST_MODIFIED_KEY));
+    }
+
+    @Override
+    public synchronized void put(String url, Validators validators) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(URL_KEY, url);
+
+        if (validators.getETag() != null) {
+            properties.setProperty(ETAG_KEY, validators.getETag());
+        }
+
+        if (validators.getLastModified() != null) {
+            properties.setProperty(LAST_MODIFIED_KEY, validators.getLastModified());
+        }
+
+        String name = fileName(url);
+        Path file = directory.resolve(name);
+        Path temp = Files.createTempFile(directory, "entry", ".tmp");
+
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        entries.put(name, file);
+        evict();
+    }
+
+    @Override
+    public synchronized void remove(String url) throws IOException {
+        Path file = entries.remove(fileName(url));
+
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Path>> eldest = entries.entrySet().iterator();
+
+        while (entries.size() > maxEntries) {
+            Path file = eldest.next().getValue();
+            eldest.remove();
+
+            logger.debug("Evicting cache entry " + file);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static String fileName(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder sb = new StringBuilder(digest.length * 2 + ENTRY_SUFFIX.length());
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return sb.append(ENTRY_SUFFIX).toString();
+
+        } catch (NoSuchAlgorithmException ex) {
+            // every JVM is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static FileTime lastModifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException ex) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
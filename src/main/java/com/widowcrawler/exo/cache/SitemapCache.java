@@ -0,0 +1,37 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.cache;
+
+import java.io.IOException;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Remembers the validators of previously fetched sitemaps, keyed by URL, so they can be re-fetched with a
+ * conditional GET. Implementations must be thread-safe.
+ */
+public interface SitemapCache {
+
+    /**
+     * @return the validators stored for the URL, or null if there are none
+     */
+    Validators get(String url) throws IOException;
+
+    void put(String url, Validators validators) throws IOException;
+
+    void remove(String url) throws IOException;
+}
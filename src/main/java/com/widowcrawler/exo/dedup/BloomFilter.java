@@ -0,0 +1,289 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.dedup;
+
+import com.widowcrawler.exo.model.SitemapURL;
+import com.widowcrawler.exo.parse.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * @author Scott Mansfield
+ *
+ * A Bloom filter over strings, with its bits in direct (off-heap) memory. The size is fixed when it's
+ * created from the expected number of insertions and the false positive probability wanted at that
+ * number, so memory stays the same however many strings go through it: about 1.2 bytes per expected
+ * insertion at 1%, 1.8 at 0.1%.
+ *
+ * Its main use is dropping repeated URLs from a stream too big to deduplicate exactly:
+ *
+ *   BloomFilter seen = new BloomFilter(50_000_000L, 0.001);
+ *   exo.fetch(url, seen.dedup(writer));
+ *
+ * A false positive drops a URL that wasn't seen before. Past the expected number of insertions the
+ * false positive rate climbs quickly; {@link #getSaturation()} and {@link #getEstimatedFpp()} show how
+ * close it is, and a warning is logged once the expected number is passed.
+ *
+ * Thread safe. A string put by two threads at the same moment may be reported as new to both. The memory
+ * is released when the filter is garbage collected.
+ */
+public class BloomFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BloomFilter.class);
+
+    // 2^27 longs, 1 GiB, per buffer; a single ByteBuffer can't pass 2 GiB
+    private static final int WORDS_PER_SEGMENT_SHIFT = 27;
+    private static final long WORDS_PER_SEGMENT_MASK = (1L << WORDS_PER_SEGMENT_SHIFT) - 1;
+
+    private static final int LOCK_STRIPES = 256;
+
+    private static final long SEED_1 = 0x9e3779b97f4a7c15L;
+    private static final long SEED_2 = 0xc2b2ae3d27d4eb4fL;
+
+    private final long expectedInsertions;
+    private final double fpp;
+    private final long bitSize;
+    private final int hashFunctions;
+
+    private final ByteBuffer[] segments;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final AtomicLong bitsSet = new AtomicLong();
+    private final AtomicLong insertions = new AtomicLong();
+    private final AtomicBoolean warned = new AtomicBoolean();
+
+    public BloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions < 1) {
+            throw new IllegalArgumentException("expectedInsertions must be at least 1");
+        }
+
+        if (!(fpp > 0.0 && fpp < 1.0)) {
+            throw new IllegalArgumentException("fpp must be between 0 and 1");
+        }
+
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+
+        // m = -n ln p / (ln 2)^2, rounded up to whole longs; k = m / n ln 2
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        long words = (bits + 63) >>> 6;
+
+        this.bitSize = words << 6;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+
+        int segmentCount = (int) ((words + WORDS_PER_SEGMENT_MASK) >>> WORDS_PER_SEGMENT_SHIFT);
+        this.segments = new ByteBuffer[segmentCount];
+
+        for (int i = 0; i < segmentCount; i++) {
+            long segmentWords = Math.min(words - ((long) i << WORDS_PER_SEGMENT_SHIFT), 1L << WORDS_PER_SEGMENT_SHIFT);
+            // direct buffers start zeroed
+            segments[i] = ByteBuffer.allocateDirect((int) (segmentWords << 3));
+        }
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Adds the string to the filter.
+     *
+     * @return true if it wasn't in the filter before, false if it was or this is a false positive
+     */
+    public boolean put(String key) {
+        final long h1 = hash(key, SEED_1);
+        final long h2 = hash(key, SEED_2);
+
+        boolean changed = false;
+
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitSize;
+            changed |= setBit(bit);
+        }
+
+        long count = insertions.incrementAndGet();
+
+        if (count > expectedInsertions && warned.compareAndSet(false, true)) {
+            logger.warn("Bloom filter is past its expected " + expectedInsertions + " insertions, the false "
+                    + "positive rate will climb above " + fpp);
+        }
+
+        return changed;
+    }
+
+    public boolean mightContain(String key) {
+        final long h1 = hash(key, SEED_1);
+        final long h2 = hash(key, SEED_2);
+
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitSize;
+
+            if ((word(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Passes each URL on to the consumer only the first time its normalized location goes through this
+     * filter. The result is safe to call from several threads at once if the consumer is, see
+     * {@link Parser#concurrent}.
+     */
+    public Consumer<SitemapURL> dedup(Consumer<SitemapURL> consumer) {
+        Consumer<SitemapURL> filtered = sitemapURL -> {
+            String location = sitemapURL.getNormalizedLocation();
+
+            if (location == null || put(location)) {
+                consumer.accept(sitemapURL);
+            }
+        };
+
+        return Parser.isConcurrent(consumer) ? Parser.concurrent(filtered) : filtered;
+    }
+
+    public long getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public double getFpp() {
+        return fpp;
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    /**
+     * Number of calls to put so far, repeats included.
+     */
+    public long getInsertions() {
+        return insertions.get();
+    }
+
+    /**
+     * Fraction of the bits that are set. About one half at the expected number of insertions.
+     */
+    public double getSaturation() {
+        return (double) bitsSet.get() / bitSize;
+    }
+
+    /**
+     * False positive probability at the current saturation.
+     */
+    public double getEstimatedFpp() {
+        return Math.pow(getSaturation(), hashFunctions);
+    }
+
+    /**
+     * Estimate of the number of distinct strings put, from the saturation.
+     */
+    public long getEstimatedDistinct() {
+        double saturation = getSaturation();
+
+        if (saturation >= 1.0) {
+            return Long.MAX_VALUE;
+        }
+
+        return Math.round(-(double) bitSize / hashFunctions * Math.log(1.0 - saturation));
+    }
+
+    private long word(long wordIndex) {
+        ByteBuffer segment = segments[(int) (wordIndex >>> WORDS_PER_SEGMENT_SHIFT)];
+        return segment.getLong((int) (wordIndex & WORDS_PER_SEGMENT_MASK) << 3);
+    }
+
+    private boolean setBit(long bit) {
+        final long wordIndex = bit >>> 6;
+        final long mask = 1L << bit;
+
+        // Most bits of a repeated string are set already, which needs no lock
+        if ((word(wordIndex) & mask) != 0) {
+            return false;
+        }
+
+        ByteBuffer segment = segments[(int) (wordIndex >>> WORDS_PER_SEGMENT_SHIFT)];
+        int offset = (int) (wordIndex & WORDS_PER_SEGMENT_MASK) << 3;
+
+        synchronized (locks[(int) (wordIndex & (LOCK_STRIPES - 1))]) {
+            long word = segment.getLong(offset);
+
+            if ((word & mask) != 0) {
+                return false;
+            }
+
+            segment.putLong(offset, word | mask);
+        }
+
+        bitsSet.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 64-bit hash of the UTF-16 code units of the string, four to a block, with murmur3's block mixing and
+     * finalizer. Two seeds give the two hashes the bit positions are derived from.
+     */
+    static long hash(String key, long seed) {
+        final int length = key.length();
+        long h = seed ^ length;
+        int i = 0;
+
+        for (; i + 4 <= length; i += 4) {
+            long k = key.charAt(i)
+                    | (long) key.charAt(i + 1) << 16
+                    | (long) key.charAt(i + 2) << 32
+                    | (long) key.charAt(i + 3) << 48;
+
+            h ^= mixK(k);
+            h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+        }
+
+        long k = 0;
+        for (int shift = 0; i < length; i++, shift += 16) {
+            k |= (long) key.charAt(i) << shift;
+        }
+
+        h ^= mixK(k);
+        return fmix(h);
+    }
+
+    private static long mixK(long k) {
+        k *= 0x87c37b91114253d5L;
+        k = Long.rotateLeft(k, 31);
+        k *= 0x4cf5ad432745937fL;
+        return k;
+    }
+
+    private static long fmix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.diff;
+
+import com.widowcrawler.exo.model.SitemapURL;
+
+import java.util.BitSet;
+import java.util.function.Consumer;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Compares a freshly parsed stream of URLs against the snapshot of the previous poll. Feed it the new
+ * URLs, e.g. by passing it as the consumer to Exo.fetch, and additions and modifications are reported as
+ * they arrive. {@link #finish()} then reports everything that disappeared and returns the snapshot to
+ * compare the next poll against.
+ *
+ * URLs without a location are skipped, as they are by {@link SitemapSnapshot}.
+ *
+ * Only the two snapshots are held in memory, never the URLs themselves. Not thread-safe, but the Exo and
+ * Parser streaming methods never call a consumer concurrently.
+ */
+public class SitemapDiff implements Consumer<SitemapURL> {
+
+    private final SitemapSnapshot previous;
+    private final SitemapDiffListener listener;
+    private final SitemapSnapshot next;
+    private final BitSet seen;
+
+    private boolean finished = false;
+
+    public SitemapDiff(SitemapSnapshot previous, SitemapDiffListener listener) {
+        this.previous = previous;
+        this.listener = listener;
+        this.next = new SitemapSnapshot(previous.size());
+        this.seen = new BitSet(previous.capacity());
+    }
+
+    @Override
+    public void accept(SitemapURL sitemapURL) {
+        if (finished) {
+            throw new IllegalStateException("Diff is already finished");
+        }
+
+        // The same URL may be streamed more than once, e.g. when a child sitemap is retried. One without a
+        // location isn't added either, and can't be compared.
+        if (!next.add(sitemapURL)) {
+            return;
+        }
+
+        int slot = previous.slotOf(SitemapSnapshot.locationHash(sitemapURL.getNormalizedLocation()));
+
+        if (slot < 0) {
+            listener.added(sitemapURL);
+            return;
+        }
+
+        seen.set(slot);
+
+        if (!previous.matches(slot, sitemapURL)) {
+            listener.modified(sitemapURL);
+        }
+    }
+
+    /**
+     * Reports every URL of the previous snapshot that wasn't seen in the new stream as removed.
+     *
+     * @return the snapshot of the new stream
+     */
+    public SitemapSnapshot finish() {
+        if (!finished) {
+            finished = true;
+
+            for (int slot = 0; slot < previous.capacity(); slot++) {
+                if (previous.isOccupied(slot) && !seen.get(slot)) {
+                    listener.removed(previous.keyAt(slot));
+                }
+            }
+        }
+
+        return next;
+    }
+}
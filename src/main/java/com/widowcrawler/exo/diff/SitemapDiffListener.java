@@ -0,0 +1,40 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.diff;
+
+import com.widowcrawler.exo.model.SitemapURL;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Receives the changes {@link SitemapDiff} finds between a sitemap snapshot and a fresh parse.
+ */
+public interface SitemapDiffListener {
+
+    void added(SitemapURL sitemapURL);
+
+    /**
+     * The URL was in the snapshot, but its lastmod, changefreq, priority or mobile flag changed.
+     */
+    void modified(SitemapURL sitemapURL);
+
+    /**
+     * The URL was in the snapshot but isn't anymore. Snapshots only keep a hash of each location, see
+     * {@link SitemapSnapshot#locationHash(String)}.
+     */
+    void removed(long locationHash);
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.diff;
+
+import com.widowcrawler.exo.model.Sitemap;
+import com.widowcrawler.exo.model.SitemapURL;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * @author Scott Mansfield
+ *
+ * A compact record of the URLs of a sitemap, enough to tell what changed since: a 64 bit hash of each
+ * normalized location, its lastmod in epoch millis and a fingerprint of its other fields. Entries live in
+ * primitive arrays of an open addressing table, 20 bytes a slot or 27 to 54 bytes per URL depending on
+ * how full the table is, so tens of millions of URLs fit comfortably on the heap.
+ *
+ * Two distinct locations share a hash with a probability of about n^2 / 2^65, roughly 1 in 15,000 for
+ * 50 million URLs. Not thread-safe.
+ */
+public class SitemapSnapshot {
+
+    private static final int MAGIC = 0x45584f44; // "EXOD"
+    private static final int VERSION = 1;
+
+    private static final long EMPTY = 0L;
+    private static final long NO_LAST_MODIFIED = Long.MIN_VALUE;
+
+    private long[] keys;
+    private long[] lastModified;
+    private int[] attributes;
+    private int size;
+
+    public SitemapSnapshot() {
+        this(16);
+    }
+
+    public SitemapSnapshot(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public static SitemapSnapshot of(Sitemap sitemap) {
+        SitemapSnapshot snapshot = new SitemapSnapshot(sitemap.getUrls().size());
+        sitemap.getUrls().forEach(snapshot::add);
+        return snapshot;
+    }
+
+    /**
+     * 64 bit FNV-1a of the normalized location, finished with the murmur3 mixer.
+     */
+    public static long locationHash(String normalizedLocation) {
+        long h = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < normalizedLocation.length(); i++) {
+            h ^= normalizedLocation.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        // 0 marks an empty slot
+        return h == EMPTY ? 1L : h;
+    }
+
+    /**
+     * A URL without a location has nothing to be told apart by, so it is skipped.
+     *
+     * @return true if the location wasn't in the snapshot yet, false if it was or there is none
+     */
+    public boolean add(SitemapURL sitemapURL) {
+        if (sitemapURL.getNormalizedLocation() == null) {
+            return false;
+        }
+
+        return put(locationHash(sitemapURL.getNormalizedLocation()), lastModifiedOf(sitemapURL), attributesOf(sitemapURL));
+    }
+
+    public boolean contains(SitemapURL sitemapURL) {
+        return sitemapURL.getNormalizedLocation() != null && slotOf(locationHash(sitemapURL.getNormalizedLocation())) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputStream);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(size);
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                out.writeLong(keys[i]);
+                out.writeLong(lastModified[i]);
+                out.writeInt(attributes[i]);
+            }
+        }
+
+        out.flush();
+    }
+
+    public static SitemapSnapshot readFrom(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a sitemap snapshot");
+        }
+
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported sitemap snapshot version: " + version);
+        }
+
+        int count = in.readInt();
+        SitemapSnapshot snapshot = new SitemapSnapshot(count);
+
+        for (int i = 0; i < count; i++) {
+            snapshot.put(in.readLong(), in.readLong(), in.readInt());
+        }
+
+        return snapshot;
+    }
+
+    /////////////////////////////////
+    // Used by SitemapDiff
+    /////////////////////////////////
+
+    int slotOf(long key) {
+        int mask = keys.length - 1;
+
+        for (int slot = (int) key & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+
+            if (keys[slot] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    boolean matches(int slot, SitemapURL sitemapURL) {
+        return lastModified[slot] == lastModifiedOf(sitemapURL) && attributes[slot] == attributesOf(sitemapURL);
+    }
+
+    boolean isOccupied(int slot) {
+        return keys[slot] != EMPTY;
+    }
+
+    long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /////////////////////////////////
+
+    private boolean put(long key, long lastModifiedMillis, int attributeBits) {
+        if ((size + 1) * 4L > keys.length * 3L) {
+            grow();
+        }
+
+        int mask = keys.length - 1;
+        int slot = (int) key & mask;
+
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        boolean added = keys[slot] == EMPTY;
+
+        keys[slot] = key;
+        lastModified[slot] = lastModifiedMillis;
+        attributes[slot] = attributeBits;
+
+        if (added) {
+            size++;
+        }
+
+        return added;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldLastModified = lastModified;
+        int[] oldAttributes = attributes;
+
+        allocate(oldKeys.length * 2);
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldLastModified[i], oldAttributes[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        lastModified = new long[capacity];
+        attributes = new int[capacity];
+        Arrays.fill(lastModified, NO_LAST_MODIFIED);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // keep the load factor at or under 3/4
+        long needed = Math.max(16L, expectedSize * 4L / 3L + 1);
+        return (int) Math.min(1 << 30, Long.highestOneBit(needed - 1) << 1);
+    }
+
+    private static long lastModifiedOf(SitemapURL sitemapURL) {
+        return sitemapURL.getLastModified() == null ? NO_LAST_MODIFIED : sitemapURL.getLastModified().getMillis();
+    }
+
+    private static int attributesOf(SitemapURL sitemapURL) {
+        int h = sitemapURL.getChangeFrequency() == null ? 0 : sitemapURL.getChangeFrequency().ordinal() + 1;
+        h = 31 * h + (sitemapURL.getPriority() == null ? 0 : sitemapURL.getPriority().hashCode());
+        h = 31 * h + (sitemapURL.isMobileContent() == null ? 0 : sitemapURL.isMobileContent() ? 1 : 2);
+        return h;
+    }
+}
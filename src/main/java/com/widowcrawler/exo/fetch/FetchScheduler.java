@@ -0,0 +1,411 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.fetch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Decides when each fetch may be sent, so that a sitemap index with hundreds of children on one host stays
+ * within that host's crawl rate while fetches to other hosts go ahead. A fetch asks for a {@link Permit}
+ * for its host and sends its request once it gets one. A permit is granted when:
+ *
+ *   - the host's token bucket has a token; buckets refill at requestsPerSecond, up to burst tokens
+ *   - fewer than maxInFlightPerHost permits of the host are out
+ *   - fewer than maxInFlight permits are out in total
+ *   - the host isn't paused by {@link #backOff}
+ *
+ * Hosts waiting for permits are served round-robin, one permit per host per turn, so one busy host can't
+ * take every free slot of the total limit.
+ *
+ * A permit covers a request until its response arrives. The body is read after the permit is returned,
+ * which lets the child sitemaps of an index be fetched while the index itself is still being read.
+ *
+ * Schedulers are thread safe, and one can be shared by several Exo instances to share the limits. The
+ * state of a host is dropped once it's idle, i.e. nothing waits or is in flight, it isn't paused or backing
+ * off and its bucket is full, so a long crawl doesn't keep every host it ever saw.
+ */
+public class FetchScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(FetchScheduler.class);
+
+    private static final int MIN_SWEEP = 64;
+
+    // Only wakes the dispatcher when a token comes due or a pause ends
+    private static class Timer {
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "exo-fetch-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final double requestsPerSecond;
+    private final int burst;
+    private final int maxInFlightPerHost;
+    private final int maxInFlight;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final Object lock = new Object();
+    private final Map<String, Host> hosts = new HashMap<>();
+    private final ArrayDeque<Host> ready = new ArrayDeque<>();
+    private int inFlight;
+    private long wakeupAt = Long.MAX_VALUE;
+    private int sweepAt = MIN_SWEEP;
+
+    public static class Builder {
+        private double requestsPerSecond = Double.POSITIVE_INFINITY;
+        private int burst = 1;
+        private int maxInFlightPerHost = Integer.MAX_VALUE;
+        private int maxInFlight = Integer.MAX_VALUE;
+        private long baseBackoffMillis = 1_000L;
+        private long maxBackoffMillis = 60_000L;
+
+        /**
+         * Sustained rate of requests to any one host. Unlimited by default.
+         */
+        public Builder withRequestsPerSecond(double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * Requests that may be sent to an idle host at once, before the rate applies. Defaults to 1.
+         */
+        public Builder withBurst(int burst) {
+            this.burst = burst;
+            return this;
+        }
+
+        public Builder withMaxInFlightPerHost(int maxInFlightPerHost) {
+            this.maxInFlightPerHost = maxInFlightPerHost;
+            return this;
+        }
+
+        /**
+         * Cap on requests in flight across all hosts.
+         */
+        public Builder withMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * How long a host is paused after a 429 or 503 without a Retry-After. Doubles for each one in a row,
+         * up to maxBackoffMillis.
+         */
+        public Builder withBackoff(long baseBackoffMillis, long maxBackoffMillis) {
+            this.baseBackoffMillis = baseBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        public FetchScheduler build() {
+            if (!(requestsPerSecond > 0)) {
+                throw new IllegalArgumentException("requestsPerSecond must be positive");
+            }
+
+            if (burst < 1 || maxInFlightPerHost < 1 || maxInFlight < 1) {
+                throw new IllegalArgumentException("burst and in flight limits must be at least 1");
+            }
+
+            if (baseBackoffMillis < 0 || maxBackoffMillis < 0) {
+                throw new IllegalArgumentException("Backoff must not be negative");
+            }
+
+            return new FetchScheduler(this);
+        }
+    }
+
+    private FetchScheduler(Builder builder) {
+        this.requestsPerSecond = builder.requestsPerSecond;
+        this.burst = builder.burst;
+        this.maxInFlightPerHost = builder.maxInFlightPerHost;
+        this.maxInFlight = builder.maxInFlight;
+        this.baseBackoffMillis = builder.baseBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+    }
+
+    /**
+     * A granted request slot. Closing it more than once has no effect.
+     */
+    public final class Permit implements AutoCloseable {
+        private final Host host;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit(Host host) {
+            this.host = host;
+        }
+
+        public String getHost() {
+            return host.name;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(host);
+            }
+        }
+    }
+
+    private class Host {
+        private final String name;
+        private final ArrayDeque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+        private int inFlight;
+        private double tokens = burst;
+        private long refilledAt = System.nanoTime();
+        private long pausedUntil;
+        private int backoffs;
+        private boolean queued;
+
+        private Host(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return 0 if a permit can be granted now, the nanos until one could be, or Long.MAX_VALUE if that
+         *         depends on a permit being returned
+         */
+        private long waitNanos(long now) {
+            if (pausedUntil - now > 0) {
+                return pausedUntil - now;
+            }
+
+            if (inFlight >= maxInFlightPerHost) {
+                return Long.MAX_VALUE;
+            }
+
+            if (requestsPerSecond != Double.POSITIVE_INFINITY) {
+                tokens = Math.min(burst, tokens + (now - refilledAt) * requestsPerSecond / 1e9);
+                refilledAt = now;
+
+                if (tokens < 1.0) {
+                    return Math.max(1L, (long) Math.ceil((1.0 - tokens) / requestsPerSecond * 1e9));
+                }
+            }
+
+            return 0L;
+        }
+
+        /**
+         * @return true if the host is in the state a new one would be in, so it can be forgotten
+         */
+        private boolean isIdle(long now) {
+            waiters.removeIf(CompletableFuture::isDone);
+
+            if (queued || !waiters.isEmpty() || inFlight > 0 || backoffs > 0 || pausedUntil - now > 0) {
+                return false;
+            }
+
+            return requestsPerSecond == Double.POSITIVE_INFINITY
+                    || tokens + (now - refilledAt) * requestsPerSecond / 1e9 >= burst;
+        }
+    }
+
+    /**
+     * Completes with a permit for the given host once one can be granted. Cancelling the future gives up
+     * the place in the queue.
+     */
+    public CompletableFuture<Permit> acquire(String host) {
+        final CompletableFuture<Permit> permit = new CompletableFuture<>();
+
+        synchronized (lock) {
+            Host state = host(host);
+            state.waiters.add(permit);
+            enqueue(state);
+        }
+
+        dispatch();
+        return permit;
+    }
+
+    /**
+     * Pauses the given host, e.g. after it answered 429 Too Many Requests. With a retryAfterMillis of -1 the
+     * pause doubles with each call until {@link #recovered} is called for the host.
+     */
+    public void backOff(String host, long retryAfterMillis) {
+        synchronized (lock) {
+            Host state = host(host);
+            state.backoffs++;
+
+            long pauseMillis = retryAfterMillis >= 0
+                    ? retryAfterMillis
+                    : Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(state.backoffs - 1, 30));
+
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pauseMillis);
+
+            if (until - state.pausedUntil > 0) {
+                state.pausedUntil = until;
+            }
+
+            // Start slow again once the pause is over
+            state.tokens = Math.min(state.tokens, 0.0);
+            logger.warn("Backing off " + host + " for " + pauseMillis + "ms");
+        }
+    }
+
+    /**
+     * Resets the backoff of the given host after it answered normally again.
+     */
+    public void recovered(String host) {
+        synchronized (lock) {
+            Host state = hosts.get(host);
+
+            if (state != null) {
+                state.backoffs = 0;
+            }
+        }
+    }
+
+    /**
+     * Number of permits out, across all hosts.
+     */
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    /**
+     * Number of hosts whose state is kept.
+     */
+    int getHosts() {
+        synchronized (lock) {
+            return hosts.size();
+        }
+    }
+
+    private Host host(String name) {
+        Host host = hosts.get(name);
+
+        if (host == null) {
+            // Amortized: the map has doubled in size since the last sweep
+            if (hosts.size() >= sweepAt) {
+                long now = System.nanoTime();
+                hosts.values().removeIf(state -> state.isIdle(now));
+                sweepAt = Math.max(MIN_SWEEP, hosts.size() * 2);
+            }
+
+            host = new Host(name);
+            hosts.put(name, host);
+        }
+
+        return host;
+    }
+
+    private void release(Host host) {
+        synchronized (lock) {
+            inFlight--;
+            host.inFlight--;
+            enqueue(host);
+        }
+
+        dispatch();
+    }
+
+    private void enqueue(Host host) {
+        if (!host.queued && !host.waiters.isEmpty()) {
+            host.queued = true;
+            ready.add(host);
+        }
+    }
+
+    private void dispatch() {
+        final List<CompletableFuture<Permit>> waiters = new ArrayList<>();
+        final List<Permit> permits = new ArrayList<>();
+
+        synchronized (lock) {
+            long now = System.nanoTime();
+            long nextWakeup = Long.MAX_VALUE;
+
+            // One permit per host per turn. Stop once every waiting host has been passed over in a row.
+            int passedOver = 0;
+
+            while (!ready.isEmpty() && inFlight < maxInFlight && passedOver < ready.size()) {
+                Host host = ready.poll();
+
+                while (!host.waiters.isEmpty() && host.waiters.peek().isDone()) {
+                    host.waiters.poll();
+                }
+
+                if (host.waiters.isEmpty()) {
+                    host.queued = false;
+                    continue;
+                }
+
+                long wait = host.waitNanos(now);
+
+                if (wait == 0L) {
+                    if (requestsPerSecond != Double.POSITIVE_INFINITY) {
+                        host.tokens -= 1.0;
+                    }
+
+                    host.inFlight++;
+                    inFlight++;
+                    waiters.add(host.waiters.poll());
+                    permits.add(new Permit(host));
+                    passedOver = 0;
+
+                } else {
+                    passedOver++;
+
+                    if (wait != Long.MAX_VALUE) {
+                        nextWakeup = Math.min(nextWakeup, now + wait);
+                    }
+                }
+
+                host.queued = false;
+                enqueue(host);
+            }
+
+            if (nextWakeup != Long.MAX_VALUE && (wakeupAt == Long.MAX_VALUE || nextWakeup - wakeupAt < 0)) {
+                wakeupAt = nextWakeup;
+                Timer.INSTANCE.schedule(this::wakeup, nextWakeup - now, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        // Outside the lock, as completing a future runs whatever was waiting on it
+        for (int i = 0; i < waiters.size(); i++) {
+            if (!waiters.get(i).complete(permits.get(i))) {
+                permits.get(i).close();
+            }
+        }
+    }
+
+    private void wakeup() {
+        synchronized (lock) {
+            wakeupAt = Long.MAX_VALUE;
+        }
+
+        dispatch();
+    }
+}
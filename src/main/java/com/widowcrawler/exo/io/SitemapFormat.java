@@ -0,0 +1,62 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.io;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Layout of the binary sitemap format written by {@link SitemapWriter}.
+ *
+ * header
+ *   magic   - int, "EXOS"
+ *   version - byte
+ * record*
+ *   flags          - byte, see below
+ *   shared prefix  - varint, bytes of the previous location this one starts with
+ *   suffix length  - varint
+ *   suffix         - UTF-8 bytes
+ *   lastmod        - long epoch millis (if LAST_MODIFIED), then either
+ *                      short UTC offset in minutes, for fixed offset zones, or
+ *                      varint zone number (if NAMED_ZONE), numbered in the order first written; a new
+ *                      number is followed by the zone ID as varint length and UTF-8 bytes
+ *   changefreq     - byte ordinal (if CHANGE_FREQ)
+ *   priority       - short thousandths (if PRIORITY), or double (if PRIORITY and RAW_PRIORITY)
+ * end
+ *   byte END
+ */
+final class SitemapFormat {
+
+    static final int MAGIC = 0x45584f53; // "EXOS"
+    static final byte VERSION = 2;
+
+    // Version 1 had no NAMED_ZONE, and is read as is
+    static final byte FIXED_OFFSET_VERSION = 1;
+
+    static final int LAST_MODIFIED = 1;
+    static final int CHANGE_FREQ = 1 << 1;
+    static final int PRIORITY = 1 << 2;
+    static final int RAW_PRIORITY = 1 << 3;
+    static final int MOBILE = 1 << 4;
+    static final int IS_MOBILE = 1 << 5;
+    static final int NAMED_ZONE = 1 << 6;
+
+    static final int END = 0xff;
+
+    static final double PRIORITY_SCALE = 1000.0D;
+
+    private SitemapFormat() { }
+}
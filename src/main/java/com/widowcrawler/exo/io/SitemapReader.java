@@ -0,0 +1,353 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.io;
+
+import com.widowcrawler.exo.model.ChangeFreq;
+import com.widowcrawler.exo.model.Sitemap;
+import com.widowcrawler.exo.model.SitemapURL;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static com.widowcrawler.exo.io.SitemapFormat.*;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Streams back the URLs written by {@link SitemapWriter}. Files are memory-mapped when they fit in a single
+ * mapping (2GB), and read through a buffered stream otherwise.
+ *
+ * Last modified times come back in the zone they were written with: a fixed offset as parsed from an
+ * explicit offset, or a named zone such as the default zone a date without an offset is parsed in, so
+ * they are equal to what was written. Not thread-safe.
+ */
+public class SitemapReader implements Closeable {
+
+    private static final ChangeFreq[] CHANGE_FREQS = ChangeFreq.values();
+
+    private static final int MAX_OFFSET_MINUTES = 24 * 60 - 1;
+
+    // DateTimeZone.forOffsetMillis formats an ID on every call, so fixed offsets are kept once created
+    private static final DateTimeZone[] OFFSET_ZONES = new DateTimeZone[2 * MAX_OFFSET_MINUTES + 1];
+
+    private final Source source;
+
+    private final List<DateTimeZone> zones = new ArrayList<>();
+
+    private byte[] location = new byte[256];
+    private int locationLength = 0;
+    private boolean done = false;
+
+    public SitemapReader(InputStream inputStream) throws IOException {
+        this(new StreamSource(inputStream));
+    }
+
+    private SitemapReader(Source source) throws IOException {
+        this.source = source;
+
+        if (source.readInt() != MAGIC) {
+            throw new IOException("Not a sitemap file");
+        }
+
+        byte version = source.readByte();
+        if (version != VERSION && version != FIXED_OFFSET_VERSION) {
+            throw new IOException("Unsupported sitemap file version: " + version);
+        }
+    }
+
+    public static SitemapReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() <= Integer.MAX_VALUE) {
+                // the mapping stays valid after the channel is closed
+                return new SitemapReader(new BufferSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+            }
+        }
+
+        return new SitemapReader(new StreamSource(Files.newInputStream(path)));
+    }
+
+    public static Sitemap read(Path path) throws IOException {
+        final Set<SitemapURL> sitemapURLs = new HashSet<>();
+
+        try (SitemapReader reader = open(path)) {
+            reader.read(sitemapURLs::add);
+        }
+
+        return new Sitemap(sitemapURLs);
+    }
+
+    /**
+     * Streams every remaining URL to the consumer.
+     */
+    public void read(Consumer<SitemapURL> consumer) throws IOException {
+        for (SitemapURL sitemapURL = next(); sitemapURL != null; sitemapURL = next()) {
+            consumer.accept(sitemapURL);
+        }
+    }
+
+    /**
+     * @return the next URL, or null at the end of the file
+     */
+    public SitemapURL next() throws IOException {
+        if (done) {
+            return null;
+        }
+
+        int flags = source.readByte() & 0xff;
+
+        if (flags == END) {
+            done = true;
+            return null;
+        }
+
+        int shared = readVarInt();
+        int suffix = readVarInt();
+
+        if (shared > locationLength) {
+            throw new IOException("Corrupt sitemap file, bad location prefix");
+        }
+
+        if (shared + suffix > location.length) {
+            location = Arrays.copyOf(location, Math.max(location.length * 2, shared + suffix));
+        }
+
+        source.readFully(location, shared, suffix);
+        locationLength = shared + suffix;
+
+        SitemapURL.Builder builder = new SitemapURL.Builder()
+                .withLocation(new URL(new String(location, 0, locationLength, StandardCharsets.UTF_8)));
+
+        if ((flags & LAST_MODIFIED) != 0) {
+            long millis = source.readLong();
+            DateTimeZone zone;
+
+            if ((flags & NAMED_ZONE) != 0) {
+                zone = readNamedZone();
+            } else {
+                int offsetMinutes = source.readShort();
+
+                if (offsetMinutes < -MAX_OFFSET_MINUTES || offsetMinutes > MAX_OFFSET_MINUTES) {
+                    throw new IOException("Corrupt sitemap file, bad UTC offset " + offsetMinutes);
+                }
+
+                zone = offsetZone(offsetMinutes);
+            }
+
+            builder.withLastModified(new DateTime(millis, zone));
+        }
+
+        if ((flags & CHANGE_FREQ) != 0) {
+            int changeFreq = source.readByte();
+
+            if (changeFreq < 0 || changeFreq >= CHANGE_FREQS.length) {
+                throw new IOException("Corrupt sitemap file, bad changefreq " + changeFreq);
+            }
+
+            builder.withChangeFrequency(CHANGE_FREQS[changeFreq]);
+        }
+
+        if ((flags & RAW_PRIORITY) != 0) {
+            builder.withPriority(source.readDouble());
+        } else if ((flags & PRIORITY) != 0) {
+            builder.withPriority(source.readShort() / PRIORITY_SCALE);
+        }
+
+        if ((flags & MOBILE) != 0) {
+            builder.withIsMobileContent((flags & IS_MOBILE) != 0);
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    private DateTimeZone readNamedZone() throws IOException {
+        int number = readVarInt();
+
+        if (number < zones.size()) {
+            return zones.get(number);
+        }
+
+        if (number > zones.size()) {
+            throw new IOException("Corrupt sitemap file, bad zone number " + number);
+        }
+
+        int length = readVarInt();
+        if (length < 0 || length > 256) {
+            throw new IOException("Corrupt sitemap file, bad zone ID length " + length);
+        }
+
+        byte[] id = new byte[length];
+        source.readFully(id, 0, length);
+
+        try {
+            DateTimeZone zone = DateTimeZone.forID(new String(id, StandardCharsets.UTF_8));
+            zones.add(zone);
+            return zone;
+
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Corrupt sitemap file, unknown zone " + new String(id, StandardCharsets.UTF_8), ex);
+        }
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = source.readByte();
+            value |= (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Corrupt sitemap file, bad varint");
+    }
+
+    private static DateTimeZone offsetZone(int offsetMinutes) {
+        int index = offsetMinutes + MAX_OFFSET_MINUTES;
+        DateTimeZone zone = OFFSET_ZONES[index];
+
+        if (zone == null) {
+            // racing readers store equal zones, and DateTimeZone is immutable
+            zone = DateTimeZone.forOffsetMillis(offsetMinutes * 60_000);
+            OFFSET_ZONES[index] = zone;
+        }
+
+        return zone;
+    }
+
+    private interface Source extends Closeable {
+        byte readByte() throws IOException;
+        short readShort() throws IOException;
+        int readInt() throws IOException;
+        long readLong() throws IOException;
+        double readDouble() throws IOException;
+        void readFully(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    private static class StreamSource implements Source {
+        private final DataInputStream in;
+
+        StreamSource(InputStream inputStream) {
+            this.in = new DataInputStream(new BufferedInputStream(inputStream, 1 << 16));
+        }
+
+        @Override public byte readByte() throws IOException { return in.readByte(); }
+        @Override public short readShort() throws IOException { return in.readShort(); }
+        @Override public int readInt() throws IOException { return in.readInt(); }
+        @Override public long readLong() throws IOException { return in.readLong(); }
+        @Override public double readDouble() throws IOException { return in.readDouble(); }
+        @Override public void readFully(byte[] bytes, int offset, int length) throws IOException { in.readFully(bytes, offset, length); }
+        @Override public void close() throws IOException { in.close(); }
+    }
+
+    private static class BufferSource implements Source {
+        private final ByteBuffer buffer;
+
+        BufferSource(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            try {
+                return buffer.get();
+            } catch (BufferUnderflowException ex) {
+                throw truncated();
+            }
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            try {
+                return buffer.getShort();
+            } catch (BufferUnderflowException ex) {
+                throw truncated();
+            }
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            try {
+                return buffer.getInt();
+            } catch (BufferUnderflowException ex) {
+                throw truncated();
+            }
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            try {
+                return buffer.getLong();
+            } catch (BufferUnderflowException ex) {
+                throw truncated();
+            }
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            try {
+                return buffer.getDouble();
+            } catch (BufferUnderflowException ex) {
+                throw truncated();
+            }
+        }
+
+        @Override
+        public void readFully(byte[] bytes, int offset, int length) throws IOException {
+            try {
+                buffer.get(bytes, offset, length);
+            } catch (BufferUnderflowException ex) {
+                throw truncated();
+            }
+        }
+
+        @Override
+        public void close() {
+            // nothing to release, the mapping goes away with the buffer
+        }
+
+        private static EOFException truncated() {
+            return new EOFException("Sitemap file is truncated");
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.io;
+
+import com.widowcrawler.exo.model.Sitemap;
+import com.widowcrawler.exo.model.SitemapURL;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.widowcrawler.exo.io.SitemapFormat.*;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Writes sitemap URLs in a compact binary format (see {@link SitemapFormat}) that {@link SitemapReader}
+ * streams back far faster than the XML can be re-parsed. Each location is stored as the part that differs
+ * from the one before it, so sorted input compresses best.
+ *
+ * It's also a consumer, so it can be handed straight to a streaming parse. Not thread-safe.
+ */
+public class SitemapWriter implements Closeable, Consumer<SitemapURL> {
+
+    private static final int FIXED = -1;
+
+    private final DataOutputStream out;
+
+    private byte[] previousLocation = new byte[0];
+
+    // Number of each named zone written so far, or FIXED for the offset zones
+    private final Map<DateTimeZone, Integer> zones = new HashMap<>();
+    private int namedZones = 0;
+    private boolean closed = false;
+
+    public SitemapWriter(OutputStream outputStream) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(outputStream, 1 << 16));
+
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    /**
+     * Writes all URLs of the sitemap to the file, sorted by location.
+     */
+    public static void write(Sitemap sitemap, Path path) throws IOException {
+        List<SitemapURL> sorted = new ArrayList<>(sitemap.getUrls());
+        // On the string that's written, so neighbours share as long a prefix as possible. A missing location
+        // sorts as "null" and fails in write.
+        sorted.sort(Comparator.comparing(sitemapURL -> String.valueOf(sitemapURL.getLocation())));
+
+        try (SitemapWriter writer = new SitemapWriter(Files.newOutputStream(path))) {
+            for (SitemapURL sitemapURL : sorted) {
+                writer.write(sitemapURL);
+            }
+        }
+    }
+
+    public void write(SitemapURL sitemapURL) throws IOException {
+        if (sitemapURL.getLocation() == null) {
+            throw new IllegalArgumentException("Cannot write a URL without a location");
+        }
+
+        int flags = 0;
+        Double priority = sitemapURL.getPriority();
+        short packedPriority = 0;
+
+        DateTime lastModified = sitemapURL.getLastModified();
+        int zone = FIXED;
+
+        if (lastModified != null) {
+            flags |= LAST_MODIFIED;
+            zone = zoneOf(lastModified);
+
+            if (zone != FIXED) {
+                flags |= NAMED_ZONE;
+            }
+        }
+
+        if (sitemapURL.getChangeFrequency() != null) {
+            flags |= CHANGE_FREQ;
+        }
+
+        if (priority != null) {
+            flags |= PRIORITY;
+
+            // Nearly every priority is a short decimal between 0 and 1, keep the rest as they are
+            long scaled = Math.round(priority * PRIORITY_SCALE);
+            if (scaled >= Short.MIN_VALUE && scaled <= Short.MAX_VALUE && scaled / PRIORITY_SCALE == priority) {
+                packedPriority = (short) scaled;
+            } else {
+                flags |= RAW_PRIORITY;
+            }
+        }
+
+        if (sitemapURL.isMobileContent() != null) {
+            flags |= MOBILE;
+
+            if (sitemapURL.isMobileContent()) {
+                flags |= IS_MOBILE;
+            }
+        }
+
+        out.writeByte(flags);
+
+        byte[] location = sitemapURL.getLocation().toString().getBytes(StandardCharsets.UTF_8);
+        int shared = sharedPrefixLength(previousLocation, location);
+
+        writeVarInt(shared);
+        writeVarInt(location.length - shared);
+        out.write(location, shared, location.length - shared);
+        previousLocation = location;
+
+        if ((flags & LAST_MODIFIED) != 0) {
+            long millis = lastModified.getMillis();
+            out.writeLong(millis);
+
+            if (zone == FIXED) {
+                out.writeShort(lastModified.getZone().getOffset(millis) / 60_000);
+            } else {
+                writeVarInt(zone);
+
+                if (zone == namedZones) {
+                    byte[] id = lastModified.getZone().getID().getBytes(StandardCharsets.UTF_8);
+                    writeVarInt(id.length);
+                    out.write(id);
+                    namedZones++;
+                }
+            }
+        }
+
+        if ((flags & CHANGE_FREQ) != 0) {
+            out.writeByte(sitemapURL.getChangeFrequency().ordinal());
+        }
+
+        if ((flags & RAW_PRIORITY) != 0) {
+            out.writeDouble(priority);
+        } else if ((flags & PRIORITY) != 0) {
+            out.writeShort(packedPriority);
+        }
+    }
+
+    @Override
+    public void accept(SitemapURL sitemapURL) {
+        try {
+            write(sitemapURL);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            out.writeByte(END);
+            out.close();
+        }
+    }
+
+    /**
+     * @return FIXED if the zone is the one its offset reads back as, otherwise its number, which is
+     *         namedZones if it hasn't been written yet
+     */
+    private int zoneOf(DateTime dateTime) {
+        DateTimeZone zone = dateTime.getZone();
+        Integer number = zones.get(zone);
+
+        if (number == null) {
+            int offset = zone.getOffset(dateTime.getMillis());
+            boolean fixed = zone.isFixed() && offset % 60_000 == 0 && zone.equals(DateTimeZone.forOffsetMillis(offset));
+
+            number = fixed ? FIXED : namedZones;
+            zones.put(zone, number);
+        }
+
+        return number;
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte(value);
+    }
+
+    private static int sharedPrefixLength(byte[] a, byte[] b) {
+        int max = Math.min(a.length, b.length);
+        int i = 0;
+
+        while (i < max && a[i] == b[i]) {
+            i++;
+        }
+
+        return i;
+    }
+}
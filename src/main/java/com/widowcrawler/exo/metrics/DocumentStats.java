@@ -0,0 +1,104 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.metrics;
+
+/**
+ * @author Scott Mansfield
+ *
+ * What it took to read one sitemap document. The time spent in the parser is split three ways: waiting for
+ * bytes from the underlying stream, inflating them if the document was gzipped, and the rest, which is XML
+ * tokenizing and building URLs.
+ */
+public class DocumentStats {
+
+    private final long bytes;
+    private final boolean compressed;
+    private final long readNanos;
+    private final long decompressNanos;
+    private final long parseNanos;
+    private final int urls;
+    private final int childSitemaps;
+    private final int depth;
+
+    public DocumentStats(long bytes, boolean compressed, long readNanos, long decompressNanos, long parseNanos,
+                         int urls, int childSitemaps, int depth) {
+        this.bytes = bytes;
+        this.compressed = compressed;
+        this.readNanos = readNanos;
+        this.decompressNanos = decompressNanos;
+        this.parseNanos = parseNanos;
+        this.urls = urls;
+        this.childSitemaps = childSitemaps;
+        this.depth = depth;
+    }
+
+    /**
+     * Bytes read from the underlying stream, so the compressed size of a gzipped document.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * URLs emitted from this document, not counting those of its child sitemaps.
+     */
+    public int getUrls() {
+        return urls;
+    }
+
+    /**
+     * Child sitemaps listed in this document if it is a sitemap index, whether or not they were fetched.
+     */
+    public int getChildSitemaps() {
+        return childSitemaps;
+    }
+
+    /**
+     * 0 for the document that was asked for, 1 for the children of a sitemap index, and so on.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String toString() {
+        return "Bytes: " + bytes + "\n" +
+                "Compressed: " + compressed + "\n" +
+                "ReadNanos: " + readNanos + "\n" +
+                "DecompressNanos: " + decompressNanos + "\n" +
+                "ParseNanos: " + parseNanos + "\n" +
+                "Urls: " + urls + "\n" +
+                "ChildSitemaps: " + childSitemaps + "\n" +
+                "Depth: " + depth + "\n";
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.metrics;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Keeps everything reported to it in memory: a {@link Histogram} per measurement, fetch latency per host as
+ * well as overall, and counts of retries and of failures by exception type. Nothing is ever reset or
+ * evicted, so keep one per crawl or per reporting interval rather than for the life of the process.
+ */
+public class HistogramMetrics implements MetricsListener {
+
+    private final Histogram fetchLatencyNanos = new Histogram();
+    private final Histogram bytes = new Histogram();
+    private final Histogram readNanos = new Histogram();
+    private final Histogram decompressNanos = new Histogram();
+    private final Histogram parseNanos = new Histogram();
+    private final Histogram urlsPerDocument = new Histogram();
+    private final Histogram fanOut = new Histogram();
+    private final Histogram depth = new Histogram();
+
+    private final ConcurrentMap<String, Histogram> fetchLatencyNanosByHost = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> failuresByType = new ConcurrentHashMap<>();
+    private final LongAdder retries = new LongAdder();
+
+    @Override
+    public void fetched(String url, int status, long latencyNanos) {
+        fetchLatencyNanos.record(latencyNanos);
+        fetchLatencyNanosByHost.computeIfAbsent(hostOf(url), host -> new Histogram()).record(latencyNanos);
+        statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void parsed(DocumentStats stats) {
+        bytes.record(stats.getBytes());
+        readNanos.record(stats.getReadNanos());
+        parseNanos.record(stats.getParseNanos());
+        urlsPerDocument.record(stats.getUrls());
+        depth.record(stats.getDepth());
+
+        if (stats.isCompressed()) {
+            decompressNanos.record(stats.getDecompressNanos());
+        }
+
+        if (stats.getChildSitemaps() > 0) {
+            fanOut.record(stats.getChildSitemaps());
+        }
+    }
+
+    @Override
+    public void retried(String url, int attempt, Throwable cause) {
+        retries.increment();
+    }
+
+    @Override
+    public void failed(String url, Throwable cause) {
+        failuresByType.computeIfAbsent(cause.getClass().getName(), type -> new LongAdder()).increment();
+    }
+
+    public Histogram getFetchLatencyNanos() {
+        return fetchLatencyNanos;
+    }
+
+    /**
+     * @return fetch latency by lower case host name, as a live view
+     */
+    public Map<String, Histogram> getFetchLatencyNanosByHost() {
+        return Collections.unmodifiableMap(fetchLatencyNanosByHost);
+    }
+
+    public Histogram getBytes() {
+        return bytes;
+    }
+
+    public Histogram getReadNanos() {
+        return readNanos;
+    }
+
+    /**
+     * Only gzipped documents are recorded.
+     */
+    public Histogram getDecompressNanos() {
+        return decompressNanos;
+    }
+
+    public Histogram getParseNanos() {
+        return parseNanos;
+    }
+
+    public Histogram getUrlsPerDocument() {
+        return urlsPerDocument;
+    }
+
+    /**
+     * Child sitemaps per sitemap index. Documents without children are not recorded.
+     */
+    public Histogram getFanOut() {
+        return fanOut;
+    }
+
+    public Histogram getDepth() {
+        return depth;
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return responses by HTTP status code
+     */
+    public Map<Integer, Long> getStatuses() {
+        return snapshot(statuses);
+    }
+
+    /**
+     * @return failures by the class name of the exception
+     */
+    public Map<String, Long> getFailuresByType() {
+        return snapshot(failuresByType);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("FetchLatencyNanos: ").append(fetchLatencyNanos).append("\n");
+        new TreeMap<>(fetchLatencyNanosByHost).forEach((host, histogram) ->
+                sb.append("  ").append(host).append(": ").append(histogram).append("\n"));
+        sb.append("Statuses: ").append(getStatuses()).append("\n");
+        sb.append("Bytes: ").append(bytes).append("\n");
+        sb.append("ReadNanos: ").append(readNanos).append("\n");
+        sb.append("DecompressNanos: ").append(decompressNanos).append("\n");
+        sb.append("ParseNanos: ").append(parseNanos).append("\n");
+        sb.append("UrlsPerDocument: ").append(urlsPerDocument).append("\n");
+        sb.append("FanOut: ").append(fanOut).append("\n");
+        sb.append("Depth: ").append(depth).append("\n");
+        sb.append("Retries: ").append(getRetries()).append("\n");
+        sb.append("FailuresByType: ").append(getFailuresByType()).append("\n");
+
+        return sb.toString();
+    }
+
+    private static <K extends Comparable<K>> Map<K, Long> snapshot(Map<K, LongAdder> counters) {
+        Map<K, Long> snapshot = new TreeMap<>();
+        counters.forEach((key, counter) -> snapshot.put(key, counter.sum()));
+        return snapshot;
+    }
+
+    private static String hostOf(String url) {
+        try {
+            return new URL(url).getHost().toLowerCase(Locale.ROOT);
+        } catch (MalformedURLException ex) {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.metrics;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Receives timings and counts from Exo and Parser as sitemaps are fetched and parsed. Every method has an
+ * empty default, so implementations only override what they record. Methods are called from whichever
+ * thread did the work, so implementations must be thread-safe, and they are called inline, so they should
+ * be quick.
+ */
+public interface MetricsListener {
+
+    /**
+     * Records nothing. The default when no listener is configured.
+     */
+    MetricsListener NONE = new MetricsListener() { };
+
+    /**
+     * The response headers for a sitemap arrived, latencyNanos after the request was sent.
+     */
+    default void fetched(String url, int status, long latencyNanos) { }
+
+    /**
+     * A document was read to the end.
+     */
+    default void parsed(DocumentStats stats) { }
+
+    /**
+     * A child sitemap is about to be loaded again. attempt is the number of the attempt about to be made,
+     * starting at 2, and cause is why the previous one failed.
+     */
+    default void retried(String url, int attempt, Throwable cause) { }
+
+    /**
+     * Fetching or parsing a document failed. Reported once per attempt, and again for every sitemap index
+     * above it that fails because of it.
+     */
+    default void failed(String url, Throwable cause) { }
+}
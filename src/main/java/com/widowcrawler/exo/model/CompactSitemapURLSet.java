@@ -0,0 +1,468 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.model;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTime;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * @author Scott Mansfield
+ *
+ * A Set of SitemapURLs that keeps its entries in primitive, column-wise arrays instead of as objects, for
+ * sitemaps too big to hold as a HashSet. Use it as the backing store of a Sitemap:
+ *
+ *   new Sitemap(new CompactSitemapURLSet())
+ *
+ * Locations are split into an interned origin (scheme, host and port) and the path and query, which are
+ * kept as UTF-8 bytes in one shared array. Last modified times are kept as epoch millis plus an interned
+ * chronology, changefreq and the mobile flag share a byte, and priorities are packed into a short.
+ * Together with the hash index that comes to about 30 bytes plus the length of the path per URL.
+ *
+ * Iterating creates a new SitemapURL for each entry. Locations come back in normalized form (see
+ * {@link URLNormalizer}), which is what equality is based on anyway. Entries can't be removed, and the set
+ * is not thread-safe.
+ */
+public class CompactSitemapURLSet extends AbstractSet<SitemapURL> {
+
+    private static final int NO_ORIGIN = -1;
+    private static final int NO_CHRONOLOGY = -1;
+    private static final int EMPTY = -1;
+    private static final int UNKNOWN = -2;
+
+    private static final double PRIORITY_SCALE = 1000.0D;
+
+    // Some VMs reserve a few header words in an array
+    static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private static final ChangeFreq[] CHANGE_FREQS = ChangeFreq.values();
+
+    // flags: bits 0-3 changefreq ordinal + 1, bits 4-5 mobile (0 unset, 1 false, 2 true),
+    // bit 6 priority set, bit 7 priority kept in rawPriorities
+    private static final int CHANGE_FREQ_MASK = 0x0f;
+    private static final int MOBILE_SHIFT = 4;
+    private static final int MOBILE_MASK = 0x03 << MOBILE_SHIFT;
+    private static final int HAS_PRIORITY = 1 << 6;
+    private static final int RAW_PRIORITY = 1 << 7;
+
+    private final List<String> origins = new ArrayList<>();
+    private final Map<String, Integer> originIds = new HashMap<>();
+
+    private final List<Chronology> chronologies = new ArrayList<>();
+    private final Map<Chronology, Integer> chronologyIds = new HashMap<>();
+
+    private final Map<Integer, Double> rawPriorities = new HashMap<>();
+
+    // columns, one entry per URL
+    private int[] origin;
+    private int[] pathEnd;
+    private long[] lastModified;
+    private short[] chronology;
+    private short[] priority;
+    private byte[] flags;
+
+    // path and query bytes of every URL, back to back
+    private byte[] paths;
+    private int pathsLength;
+
+    // open addressing index of entry numbers
+    private int[] table;
+
+    private int size;
+
+    public CompactSitemapURLSet() {
+        this(16);
+    }
+
+    public CompactSitemapURLSet(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+
+        origin = new int[capacity];
+        pathEnd = new int[capacity];
+        lastModified = new long[capacity];
+        chronology = new short[capacity];
+        priority = new short[capacity];
+        flags = new byte[capacity];
+        paths = new byte[(int) Math.min(capacity * 32L, MAX_ARRAY_LENGTH)];
+
+        table = newTable(tableSizeFor(capacity));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(SitemapURL sitemapURL) {
+        Entry entry = new Entry(sitemapURL, true);
+
+        if (find(entry) != EMPTY) {
+            return false;
+        }
+
+        append(entry);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof SitemapURL)) {
+            return false;
+        }
+
+        Entry entry = new Entry((SitemapURL) o, false);
+
+        if (entry.origin == UNKNOWN || entry.chronology == UNKNOWN) {
+            // the set has never seen its origin or chronology
+            return false;
+        }
+
+        return find(entry) != EMPTY;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        rawPriorities.clear();
+        pathsLength = 0;
+        size = 0;
+    }
+
+    @Override
+    public Iterator<SitemapURL> iterator() {
+        return new Iterator<SitemapURL>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public SitemapURL next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+
+                return get(next++);
+            }
+        };
+    }
+
+    /**
+     * Shrinks the internal arrays to the number of entries, once no more will be added.
+     */
+    public void trimToSize() {
+        origin = Arrays.copyOf(origin, size);
+        pathEnd = Arrays.copyOf(pathEnd, size);
+        lastModified = Arrays.copyOf(lastModified, size);
+        chronology = Arrays.copyOf(chronology, size);
+        priority = Arrays.copyOf(priority, size);
+        flags = Arrays.copyOf(flags, size);
+        paths = Arrays.copyOf(paths, pathsLength);
+    }
+
+    private SitemapURL get(int index) {
+        SitemapURL.Builder builder = new SitemapURL.Builder();
+
+        if (origin[index] != NO_ORIGIN) {
+            int start = pathStart(index);
+            String location = origins.get(origin[index]) + new String(paths, start, pathEnd[index] - start, StandardCharsets.UTF_8);
+
+            try {
+                builder.withLocation(new URL(location));
+            } catch (MalformedURLException ex) {
+                // it was a URL when it went in
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        if (chronology[index] != NO_CHRONOLOGY) {
+            builder.withLastModified(new DateTime(lastModified[index], chronologies.get(chronology[index])));
+        }
+
+        int f = flags[index] & 0xff;
+
+        if ((f & CHANGE_FREQ_MASK) != 0) {
+            builder.withChangeFrequency(CHANGE_FREQS[(f & CHANGE_FREQ_MASK) - 1]);
+        }
+
+        if ((f & RAW_PRIORITY) != 0) {
+            builder.withPriority(rawPriorities.get(index));
+        } else if ((f & HAS_PRIORITY) != 0) {
+            builder.withPriority(priority[index] / PRIORITY_SCALE);
+        }
+
+        int mobile = (f & MOBILE_MASK) >>> MOBILE_SHIFT;
+        if (mobile != 0) {
+            builder.withIsMobileContent(mobile == 2);
+        }
+
+        return builder.build();
+    }
+
+    private int find(Entry entry) {
+        int mask = table.length - 1;
+
+        for (int slot = entry.hash & mask; ; slot = (slot + 1) & mask) {
+            int index = table[slot];
+
+            if (index == EMPTY) {
+                return EMPTY;
+            }
+
+            if (entry.matches(index)) {
+                return index;
+            }
+        }
+    }
+
+    private void append(Entry entry) {
+        if (size == origin.length) {
+            int capacity = grow(size, size + 1L, "URLs");
+
+            origin = Arrays.copyOf(origin, capacity);
+            pathEnd = Arrays.copyOf(pathEnd, capacity);
+            lastModified = Arrays.copyOf(lastModified, capacity);
+            chronology = Arrays.copyOf(chronology, capacity);
+            priority = Arrays.copyOf(priority, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+
+        if ((long) pathsLength + entry.path.length > paths.length) {
+            paths = Arrays.copyOf(paths, grow(paths.length, (long) pathsLength + entry.path.length, "bytes of paths"));
+        }
+
+        int index = size++;
+
+        System.arraycopy(entry.path, 0, paths, pathsLength, entry.path.length);
+        pathsLength += entry.path.length;
+
+        origin[index] = entry.origin;
+        pathEnd[index] = pathsLength;
+        lastModified[index] = entry.lastModified;
+        chronology[index] = (short) entry.chronology;
+        priority[index] = entry.priority;
+        flags[index] = entry.flags;
+
+        if (entry.rawPriority != null) {
+            rawPriorities.put(index, entry.rawPriority);
+        }
+
+        if (size * 4L > table.length * 3L) {
+            rehash(table.length * 2);
+        } else {
+            insert(index, entry.hash);
+        }
+    }
+
+    private void insert(int index, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+
+        table[slot] = index;
+    }
+
+    private void rehash(int tableSize) {
+        table = newTable(tableSize);
+
+        for (int index = 0; index < size; index++) {
+            int start = pathStart(index);
+            insert(index, hash(origin[index], paths, start, pathEnd[index]));
+        }
+    }
+
+    /**
+     * New length of an array that has to hold at least needed elements: half as long again, as long as
+     * that fits in an array.
+     */
+    static int grow(int length, long needed, String what) {
+        if (needed > MAX_ARRAY_LENGTH) {
+            throw new IllegalStateException("A CompactSitemapURLSet holds at most " + MAX_ARRAY_LENGTH + " " + what);
+        }
+
+        return (int) Math.min(MAX_ARRAY_LENGTH, Math.max(needed, length + (long) (length >> 1)));
+    }
+
+    private int pathStart(int index) {
+        return index == 0 ? 0 : pathEnd[index - 1];
+    }
+
+    private static int hash(int originId, byte[] bytes, int from, int to) {
+        int h = originId;
+
+        for (int i = from; i < to; i++) {
+            h = 31 * h + bytes[i];
+        }
+
+        // murmur3 finalizer
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+
+        return h;
+    }
+
+    private static int[] newTable(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private static int tableSizeFor(int capacity) {
+        long needed = capacity * 4L / 3L + 1;
+        return (int) Math.min(1 << 30, Long.highestOneBit(needed - 1) << 1);
+    }
+
+    /**
+     * A SitemapURL broken down into column values, interning its origin and chronology if asked to.
+     */
+    private class Entry {
+        final int origin;
+        final byte[] path;
+        final int hash;
+        final long lastModified;
+        final int chronology;
+        final short priority;
+        final Double rawPriority;
+        final byte flags;
+
+        Entry(SitemapURL sitemapURL, boolean intern) {
+            String location = sitemapURL.getNormalizedLocation();
+
+            if (location == null) {
+                origin = NO_ORIGIN;
+                path = new byte[0];
+            } else {
+                int pathStart = location.indexOf('/', location.indexOf("://") + 3);
+                if (pathStart < 0) {
+                    pathStart = location.length();
+                }
+
+                origin = idOf(location.substring(0, pathStart), originIds, origins, Integer.MAX_VALUE, intern);
+                path = location.substring(pathStart).getBytes(StandardCharsets.UTF_8);
+            }
+
+            hash = CompactSitemapURLSet.hash(origin, path, 0, path.length);
+
+            DateTime lastMod = sitemapURL.getLastModified();
+            lastModified = lastMod == null ? 0L : lastMod.getMillis();
+            chronology = lastMod == null ? NO_CHRONOLOGY : idOf(lastMod.getChronology(), chronologyIds, chronologies,
+                    Short.MAX_VALUE, intern);
+
+            int f = 0;
+
+            if (sitemapURL.getChangeFrequency() != null) {
+                f |= sitemapURL.getChangeFrequency().ordinal() + 1;
+            }
+
+            if (sitemapURL.isMobileContent() != null) {
+                f |= (sitemapURL.isMobileContent() ? 2 : 1) << MOBILE_SHIFT;
+            }
+
+            Double p = sitemapURL.getPriority();
+            short packed = 0;
+            Double raw = null;
+
+            if (p != null) {
+                long scaled = Math.round(p * PRIORITY_SCALE);
+
+                if (scaled >= Short.MIN_VALUE && scaled <= Short.MAX_VALUE && scaled / PRIORITY_SCALE == p) {
+                    f |= HAS_PRIORITY;
+                    packed = (short) scaled;
+                } else {
+                    f |= HAS_PRIORITY | RAW_PRIORITY;
+                    raw = p;
+                }
+            }
+
+            priority = packed;
+            rawPriority = raw;
+            flags = (byte) f;
+        }
+
+        boolean matches(int index) {
+            if (CompactSitemapURLSet.this.origin[index] != origin
+                    || CompactSitemapURLSet.this.flags[index] != flags
+                    || CompactSitemapURLSet.this.chronology[index] != chronology
+                    || CompactSitemapURLSet.this.lastModified[index] != lastModified
+                    || CompactSitemapURLSet.this.priority[index] != priority) {
+                return false;
+            }
+
+            if (rawPriority != null && !rawPriority.equals(rawPriorities.get(index))) {
+                return false;
+            }
+
+            int start = pathStart(index);
+            int end = pathEnd[index];
+
+            if (end - start != path.length) {
+                return false;
+            }
+
+            for (int i = 0; i < path.length; i++) {
+                if (paths[start + i] != path[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * @param maxId the highest id the column the ids go into can hold
+     */
+    private static <T> int idOf(T value, Map<T, Integer> ids, List<T> values, int maxId, boolean intern) {
+        Integer id = ids.get(value);
+
+        if (id == null) {
+            if (!intern) {
+                return UNKNOWN;
+            }
+
+            if (values.size() > maxId) {
+                throw new IllegalStateException("Too many distinct values to intern, at most " + (maxId + 1L));
+            }
+
+            id = values.size();
+            values.add(value);
+            ids.put(value, id);
+        }
+
+        return id;
+    }
+}
@@ -17,9 +17,13 @@
 package com.widowcrawler.exo.model;
 
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Scott Mansfield
+ *
+ * The URLs of a sitemap, or of every sitemap under an index. Whether it can be added to from several
+ * threads at once depends on the set backing it.
  */
 public class Sitemap {
     private Set<SitemapURL> urls;
@@ -28,12 +32,23 @@ public class Sitemap {
         this.urls = urls;
     }
 
+    /**
+     * An empty sitemap that many threads can add to, and merge into, at once.
+     */
+    public static Sitemap concurrent() {
+        return new Sitemap(ConcurrentHashMap.newKeySet());
+    }
+
     public Set<SitemapURL> getUrls() {
         return urls;
     }
 
+    /**
+     * Adds the URLs of other to this sitemap. Thread safe if the backing set is, e.g. for a sitemap from
+     * {@link #concurrent()}. Expanding an index into a single set, as Exo does, avoids merging altogether.
+     */
     public Sitemap merge(Sitemap other) {
-        if (other == null || other.getUrls() == null) {
+        if (other == null || other == this || other.getUrls() == null) {
             return this;
         }
 
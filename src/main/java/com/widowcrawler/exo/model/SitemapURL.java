@@ -32,11 +32,15 @@ import java.net.URL;
  */
 public class SitemapURL {
     private URL location;
+    private String normalizedLocation;
     private DateTime lastModified;
     private ChangeFreq changeFrequency;
     private Double priority;
     private Boolean isMobileContent;
 
+    // cached, 0 means not yet computed
+    private int hash;
+
     public static class Builder {
         private SitemapURL building;
 
@@ -46,26 +50,32 @@ public class SitemapURL {
 
         public Builder withLocation(URL location) {
             building.location = location;
+            building.normalizedLocation = URLNormalizer.normalize(location);
+            building.hash = 0;
             return this;
         }
 
         public Builder withLastModified(DateTime lastModified) {
             building.lastModified = lastModified;
+            building.hash = 0;
             return this;
         }
 
         public Builder withChangeFrequency(ChangeFreq changeFrequency) {
             building.changeFrequency = changeFrequency;
+            building.hash = 0;
             return this;
         }
 
         public Builder withPriority(Double priority) {
             building.priority = priority;
+            building.hash = 0;
             return this;
         }
 
         public Builder withIsMobileContent(Boolean isMobileContent) {
             building.isMobileContent = isMobileContent;
+            building.hash = 0;
             return this;
         }
 
@@ -78,29 +88,27 @@ public class SitemapURL {
 
     @Override
     public int hashCode() {
-        int hash = 1;
+        int h = hash;
 
-        if (location != null) {
-            hash *= 31 * location.hashCode();
-        }
+        if (h == 0) {
+            h = 1;
+            h = 31 * h + (normalizedLocation == null ? 0 : normalizedLocation.hashCode());
+            h = 31 * h + (lastModified == null ? 0 : lastModified.hashCode());
+            h = 31 * h + (changeFrequency == null ? 0 : changeFrequency.ordinal() + 1);
+            h = 31 * h + (priority == null ? 0 : priority.hashCode());
+            h = 31 * h + (isMobileContent == null ? 0 : isMobileContent.hashCode());
 
-        if (lastModified != null) {
-            hash *= 23 * lastModified.hashCode();
-        }
-
-        if (changeFrequency != null) {
-            hash *= 67 * changeFrequency.hashCode();
-        }
+            // murmur3 finalizer, spreads the bits so HashMap's power of two tables don't collide on the low ones
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
 
-        if (priority != null) {
-            hash *= 47 * priority.hashCode();
+            hash = h;
         }
 
-        if (isMobileContent != null) {
-            hash *= 13 * isMobileContent.hashCode();
-        }
-
-        return hash;
+        return h;
     }
 
     @Override
@@ -112,8 +120,9 @@ public class SitemapURL {
 
         SitemapURL other = (SitemapURL) obj;
 
-        if ((this.location != null && !this.location.equals(other.getLocation())) ||
-                this.location == null && other.getLocation() != null) {
+        // Compare the normalized form; URL.equals does a DNS lookup
+        if ((this.normalizedLocation != null && !this.normalizedLocation.equals(other.getNormalizedLocation())) ||
+                this.normalizedLocation == null && other.getNormalizedLocation() != null) {
             return false;
         }
 
@@ -153,6 +162,14 @@ public class SitemapURL {
         return location;
     }
 
+    /**
+     * The location in the canonical form produced by {@link URLNormalizer}. Two SitemapURLs are only equal
+     * if their normalized locations are.
+     */
+    public String getNormalizedLocation() {
+        return normalizedLocation;
+    }
+
     public DateTime getLastModified() {
         return lastModified;
     }
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.model;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * @author Scott Mansfield
+ *
+ * A thread safe Set of SitemapURLs made of several sets that aren't, each guarded by its own lock. A URL
+ * always goes to the stripe picked by its hash code, so threads adding different URLs rarely wait on each
+ * other and inserts scale with the number of cores. Used to let the threads expanding a sitemap index add
+ * to one set directly, e.g. with a {@link CompactSitemapURLSet} per stripe:
+ *
+ *   new StripedSitemapURLSet(CompactSitemapURLSet::new)
+ *
+ * Adding, removing, contains and size are safe to call concurrently. Iterating is not; it's meant for once
+ * the set is complete.
+ */
+public class StripedSitemapURLSet extends AbstractSet<SitemapURL> {
+
+    private final Set<SitemapURL>[] stripes;
+    private final Object[] locks;
+    private final int shift;
+
+    /**
+     * Four stripes per available processor.
+     */
+    public StripedSitemapURLSet(Supplier<? extends Set<SitemapURL>> stripeFactory) {
+        this(4 * Runtime.getRuntime().availableProcessors(), stripeFactory);
+    }
+
+    /**
+     * @param stripes rounded up to a power of two
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public StripedSitemapURLSet(int stripes, Supplier<? extends Set<SitemapURL>> stripeFactory) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be at least 1");
+        }
+
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, stripes - 1));
+        int count = stripes == 1 ? 1 : 1 << bits;
+
+        this.stripes = new Set[count];
+        this.locks = new Object[count];
+        // The stripe comes from the top bits; the sets hash on the low ones, which then still vary
+        this.shift = stripes == 1 ? 32 : 32 - bits;
+
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = stripeFactory.get();
+            this.locks[i] = new Object();
+        }
+    }
+
+    private int stripeOf(Object o) {
+        // shifting an int by 32 is a no-op, not zero
+        return shift == 32 ? 0 : o.hashCode() >>> shift;
+    }
+
+    @Override
+    public boolean add(SitemapURL sitemapURL) {
+        int stripe = stripeOf(sitemapURL);
+
+        synchronized (locks[stripe]) {
+            return stripes[stripe].add(sitemapURL);
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof SitemapURL)) {
+            return false;
+        }
+
+        int stripe = stripeOf(o);
+
+        synchronized (locks[stripe]) {
+            return stripes[stripe].contains(o);
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof SitemapURL)) {
+            return false;
+        }
+
+        int stripe = stripeOf(o);
+
+        synchronized (locks[stripe]) {
+            return stripes[stripe].remove(o);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (locks[i]) {
+                size += stripes[i].size();
+            }
+        }
+
+        return size;
+    }
+
+    @Override
+    public Iterator<SitemapURL> iterator() {
+        List<Iterator<SitemapURL>> iterators = new ArrayList<>(stripes.length);
+
+        for (Set<SitemapURL> stripe : stripes) {
+            iterators.add(stripe.iterator());
+        }
+
+        return new Iterator<SitemapURL>() {
+            private int current = 0;
+            private Iterator<SitemapURL> last = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (current < iterators.size()) {
+                    if (iterators.get(current).hasNext()) {
+                        return true;
+                    }
+                    current++;
+                }
+                return false;
+            }
+
+            @Override
+            public SitemapURL next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                last = iterators.get(current);
+                return last.next();
+            }
+
+            @Override
+            public void remove() {
+                last.remove();
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.model;
+
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Canonical string form of a URL, used for equality and hashing in place of java.net.URL's own equals and
+ * hashCode, which resolve the host through DNS. Normalizing is purely textual:
+ *
+ *   - scheme and host are lower-cased
+ *   - the default port for http and https is dropped
+ *   - an empty path becomes "/"
+ *   - percent-escapes are upper-cased
+ *   - the fragment is dropped
+ */
+public final class URLNormalizer {
+
+    private URLNormalizer() { }
+
+    public static String normalize(URL url) {
+        if (url == null) {
+            return null;
+        }
+
+        String scheme = url.getProtocol().toLowerCase(Locale.ROOT);
+        String host = url.getHost().toLowerCase(Locale.ROOT);
+        int port = url.getPort();
+
+        if (port == url.getDefaultPort()) {
+            port = -1;
+        }
+
+        StringBuilder sb = new StringBuilder(url.toString().length());
+        sb.append(scheme).append("://");
+
+        if (url.getUserInfo() != null) {
+            sb.append(url.getUserInfo()).append('@');
+        }
+
+        sb.append(host);
+
+        if (port != -1) {
+            sb.append(':').append(port);
+        }
+
+        String path = url.getPath();
+        if (path.isEmpty()) {
+            sb.append('/');
+        } else {
+            appendEscaped(sb, path);
+        }
+
+        if (url.getQuery() != null) {
+            sb.append('?');
+            appendEscaped(sb, url.getQuery());
+        }
+
+        return sb.toString();
+    }
+
+    private static void appendEscaped(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            sb.append(c);
+
+            if (c == '%' && i + 2 < s.length()) {
+                sb.append(Character.toUpperCase(s.charAt(i + 1)));
+                sb.append(Character.toUpperCase(s.charAt(i + 2)));
+                i += 2;
+            }
+        }
+    }
+}
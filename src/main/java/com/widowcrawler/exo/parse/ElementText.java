@@ -0,0 +1,369 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.parse;
+
+import com.widowcrawler.exo.model.ChangeFreq;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.Arrays;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Reusable buffer for the text of a simple element, with parsers for the sitemap value types that work on
+ * the characters directly. Filling it copies the reader's own character buffer rather than building a
+ * String, and the common forms of each value parse without allocating beyond the result itself:
+ *
+ *   lastmod    - YYYY-MM-DD, at midnight in the default zone as DateTime.parse has it, and
+ *                YYYY-MM-DDThh:mm[:ss[.s{1,3}]] followed by Z or +hh:mm / -hh:mm
+ *   priority   - plain decimals, with 0.0 to 1.0 in steps of 0.01 returned from a cache
+ *   changefreq - the ChangeFreq names in any case
+ *
+ * Values are trimmed of XML whitespace first, so a pretty-printed &lt;lastmod&gt; or &lt;changefreq&gt; with
+ * the value on a line of its own is read, where it used to fail. Anything else is handed to the general
+ * parser as a String, so results and errors are otherwise the same as DateTime.parse, Double.valueOf and
+ * ChangeFreq.valueOf. One instance per parse, it is not thread-safe.
+ */
+class ElementText {
+
+    private static final ChangeFreq[] CHANGE_FREQS = ChangeFreq.values();
+
+    private static final int MAX_OFFSET_MINUTES = 24 * 60 - 1;
+
+    // DateTimeZone.forOffsetMillis formats an ID on every call, so fixed offsets are kept once created
+    private static final DateTimeZone[] OFFSET_ZONES = new DateTimeZone[2 * MAX_OFFSET_MINUTES + 1];
+
+    private static final Double[] PRIORITIES = new Double[101];
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L,
+            10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L,
+            1_000_000_000_000_000L
+    };
+
+    // sum of the digits stays exact in a double, so one division rounds the same as Double.parseDouble
+    private static final int MAX_DECIMAL_DIGITS = 15;
+
+    static {
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            PRIORITIES[i] = i / 100.0D;
+        }
+    }
+
+    private char[] chars = new char[64];
+    private int length;
+
+    /**
+     * Reads the text of the element the reader is on and leaves the reader on its end tag, the same way
+     * XMLStreamReader.getElementText does.
+     */
+    ElementText read(XMLStreamReader reader) throws XMLStreamException {
+        if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+            throw new XMLStreamException("Expected the start of an element", reader.getLocation());
+        }
+
+        length = 0;
+
+        for (int event = reader.next(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    String text = reader.getText();
+                    append(text.toCharArray(), 0, text.length());
+                    break;
+
+                case XMLStreamConstants.COMMENT:
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    break;
+
+                case XMLStreamConstants.END_DOCUMENT:
+                    throw new XMLStreamException("Unexpected end of document reading element text", reader.getLocation());
+
+                case XMLStreamConstants.START_ELEMENT:
+                    throw new XMLStreamException("Expected text only, found a nested element", reader.getLocation());
+
+                default:
+                    throw new XMLStreamException("Unexpected event reading element text: " + event, reader.getLocation());
+            }
+        }
+
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    DateTime toDateTime() {
+        int start = trimStart();
+        int end = trimEnd(start);
+
+        // YYYY-MM-DD, the most common form; without an offset DateTime.parse uses the default zone
+        if (end - start == 10 && chars[start + 4] == '-' && chars[start + 7] == '-') {
+            int year = digits(start, 4);
+            int month = digits(start + 5, 2);
+            int day = digits(start + 8, 2);
+
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month)) {
+                DateTimeZone zone = DateTimeZone.getDefault();
+                long local = daysFromCivil(year, month, day) * 86_400_000L;
+                int offset = zone.getOffsetFromLocal(local);
+
+                // Midnight can fall in a daylight saving gap, which DateTime.parse reports
+                if (offset == zone.getOffset(local - offset)) {
+                    return new DateTime(local - offset, zone);
+                }
+            }
+        }
+
+        long millis = 0;
+        int offsetMinutes = 0;
+        boolean parsed = false;
+
+        // YYYY-MM-DDThh:mm
+        if (end - start >= 17
+                && chars[start + 4] == '-' && chars[start + 7] == '-'
+                && chars[start + 10] == 'T' && chars[start + 13] == ':') {
+
+            int year = digits(start, 4);
+            int month = digits(start + 5, 2);
+            int day = digits(start + 8, 2);
+            int hour = digits(start + 11, 2);
+            int minute = digits(start + 14, 2);
+            int second = 0;
+            int milli = 0;
+            int i = start + 16;
+
+            if (i + 3 <= end && chars[i] == ':') {
+                second = digits(i + 1, 2);
+                i += 3;
+
+                if (i < end && chars[i] == '.') {
+                    int fractionStart = ++i;
+
+                    while (i < end && isDigit(chars[i])) {
+                        i++;
+                    }
+
+                    int fractionDigits = i - fractionStart;
+                    milli = fractionDigits >= 1 && fractionDigits <= 3
+                            ? digits(fractionStart, fractionDigits) * (int) POWERS_OF_TEN[3 - fractionDigits]
+                            : -1;
+                }
+            }
+
+            boolean hasOffset = false;
+
+            if (i == end - 1 && chars[i] == 'Z') {
+                hasOffset = true;
+            } else if (i == end - 6 && (chars[i] == '+' || chars[i] == '-') && chars[i + 3] == ':') {
+                int offsetHours = digits(i + 1, 2);
+                int offsetMins = digits(i + 4, 2);
+                hasOffset = offsetHours >= 0 && offsetHours <= 23 && offsetMins >= 0 && offsetMins <= 59;
+                offsetMinutes = (chars[i] == '-' ? -1 : 1) * (offsetHours * 60 + offsetMins);
+            }
+
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month)
+                    && hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 59
+                    && milli >= 0 && hasOffset) {
+
+                long seconds = daysFromCivil(year, month, day) * 86_400L + hour * 3_600L + minute * 60L + second;
+                millis = seconds * 1000L + milli - offsetMinutes * 60_000L;
+                parsed = true;
+            }
+        }
+
+        if (!parsed) {
+            return DateTime.parse(new String(chars, start, end - start));
+        }
+
+        return new DateTime(millis, offsetZone(offsetMinutes));
+    }
+
+    Double toPriority() {
+        int start = trimStart();
+        int end = trimEnd(start);
+
+        long mantissa = 0;
+        int digitCount = 0;
+        int fractionDigits = -1;
+
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+
+            if (isDigit(c)) {
+                mantissa = mantissa * 10 + (c - '0');
+                digitCount++;
+
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                digitCount = -1;
+                break;
+            }
+        }
+
+        if (digitCount < 1 || digitCount > MAX_DECIMAL_DIGITS) {
+            return Double.valueOf(new String(chars, start, end - start));
+        }
+
+        int scale = Math.max(fractionDigits, 0);
+
+        if (scale <= 2) {
+            long hundredths = mantissa * POWERS_OF_TEN[2 - scale];
+
+            if (hundredths < PRIORITIES.length) {
+                return PRIORITIES[(int) hundredths];
+            }
+        }
+
+        return mantissa / (double) POWERS_OF_TEN[scale];
+    }
+
+    ChangeFreq toChangeFreq() {
+        int start = trimStart();
+        int end = trimEnd(start);
+
+        for (ChangeFreq changeFreq : CHANGE_FREQS) {
+            if (equalsIgnoreCase(changeFreq.name(), start, end)) {
+                return changeFreq;
+            }
+        }
+
+        return ChangeFreq.valueOf(StringUtils.upperCase(new String(chars, start, end - start)));
+    }
+
+    private void append(char[] text, int start, int count) {
+        if (length + count > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(length + count, chars.length * 2));
+        }
+
+        System.arraycopy(text, start, chars, length, count);
+        length += count;
+    }
+
+    private int trimStart() {
+        int start = 0;
+
+        while (start < length && Character.isWhitespace(chars[start])) {
+            start++;
+        }
+
+        return start;
+    }
+
+    private int trimEnd(int start) {
+        int end = length;
+
+        while (end > start && Character.isWhitespace(chars[end - 1])) {
+            end--;
+        }
+
+        return end;
+    }
+
+    private boolean equalsIgnoreCase(String name, int start, int end) {
+        if (end - start != name.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            // names are upper case ASCII
+            char c = chars[start + i];
+            if (c != name.charAt(i) && (char) (c - ('a' - 'A')) != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Value of count decimal digits at from, or -1 if any of them isn't a digit.
+     */
+    private int digits(int from, int count) {
+        int value = 0;
+
+        for (int i = from; i < from + count; i++) {
+            if (!isDigit(chars[i])) {
+                return -1;
+            }
+
+            value = value * 10 + (chars[i] - '0');
+        }
+
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Days since 1970-01-01 in the proleptic Gregorian calendar, which is what ISOChronology uses.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+
+    private static DateTimeZone offsetZone(int offsetMinutes) {
+        int index = offsetMinutes + MAX_OFFSET_MINUTES;
+        DateTimeZone zone = OFFSET_ZONES[index];
+
+        if (zone == null) {
+            // racing threads store equal zones, and DateTimeZone is immutable
+            zone = DateTimeZone.forOffsetMillis(offsetMinutes * 60_000);
+            OFFSET_ZONES[index] = zone;
+        }
+
+        return zone;
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.parse;
+
+import com.widowcrawler.exo.model.URLNormalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Scott Mansfield
+ *
+ * State shared by every document of one expansion of a sitemap index tree, and the depth of one document
+ * in it. Every child sitemap has to be admitted before it's fetched. It is turned away if:
+ *
+ *   - it was already admitted anywhere in the tree, by normalized URL, including the root itself, so an
+ *     index that lists itself or a sitemap listed twice is only fetched once
+ *   - it would be deeper than maxDepth, the root being at depth 0
+ *   - maxChildSitemaps children were already admitted
+ *
+ * Turned away children are logged and skipped; the rest of the tree is still expanded. Instances are
+ * thread safe.
+ */
+public final class ExpansionContext {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpansionContext.class);
+
+    private static class Tree {
+        private final Set<String> visited = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger childSitemaps = new AtomicInteger();
+        private final int maxDepth;
+        private final int maxChildSitemaps;
+
+        private Tree(int maxDepth, int maxChildSitemaps) {
+            this.maxDepth = maxDepth;
+            this.maxChildSitemaps = maxChildSitemaps;
+        }
+    }
+
+    private final Tree tree;
+    private final int depth;
+
+    /**
+     * @param root location of the root document, may be null if it isn't known
+     */
+    public ExpansionContext(URL root, int maxDepth, int maxChildSitemaps) {
+        if (maxDepth < 0 || maxChildSitemaps < 0) {
+            throw new IllegalArgumentException("maxDepth and maxChildSitemaps must not be negative");
+        }
+
+        this.tree = new Tree(maxDepth, maxChildSitemaps);
+        this.depth = 0;
+
+        if (root != null) {
+            visit(root);
+        }
+    }
+
+    private ExpansionContext(Tree tree, int depth) {
+        this.tree = tree;
+        this.depth = depth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * The context of the children of this document.
+     */
+    public ExpansionContext next() {
+        return new ExpansionContext(tree, depth + 1);
+    }
+
+    /**
+     * Records a document fetched at this depth without going through its parent, e.g. one of several roots
+     * of the same expansion. Doesn't count as a child sitemap.
+     *
+     * @return false if the document was already seen in this expansion
+     */
+    public boolean visit(URL location) {
+        return tree.visited.add(URLNormalizer.normalize(location));
+    }
+
+    /**
+     * Decides whether a child sitemap of this document should be fetched, and records it if so.
+     */
+    public boolean admit(URL childSitemapURL) {
+        if (depth + 1 > tree.maxDepth) {
+            logger.warn("Skipping " + childSitemapURL + ", deeper than " + tree.maxDepth + " levels of sitemap index");
+            return false;
+        }
+
+        if (!tree.visited.add(URLNormalizer.normalize(childSitemapURL))) {
+            logger.debug("Skipping " + childSitemapURL + ", already expanded");
+            return false;
+        }
+
+        if (tree.childSitemaps.incrementAndGet() > tree.maxChildSitemaps) {
+            tree.childSitemaps.decrementAndGet();
+            tree.visited.remove(URLNormalizer.normalize(childSitemapURL));
+            logger.warn("Skipping " + childSitemapURL + ", over the limit of " + tree.maxChildSitemaps + " child sitemaps");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Undoes the admission of children whose parent failed, so that they are fetched again if the parent
+     * is retried.
+     */
+    void forget(Collection<URL> childSitemapURLs) {
+        for (URL childSitemapURL : childSitemapURLs) {
+            if (tree.visited.remove(URLNormalizer.normalize(childSitemapURL))) {
+                tree.childSitemaps.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Number of child sitemaps admitted so far, in the whole tree.
+     */
+    public int getChildSitemaps() {
+        return tree.childSitemaps.get();
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.parse;
+
+import com.widowcrawler.exo.SitemapParseException;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Fans the child sitemaps of a single sitemap index out onto an executor. With no executor every child is
+ * loaded inline, in document order, as soon as it is submitted.
+ *
+ * Fetches to the same host are capped by a semaphore per host that is shared by every expansion of the
+ * owning Parser. A permit covers fetching and reading a child, not expanding it: a child that is itself an
+ * index gives its permit up while waiting for its own children, which may be on the same host, and takes
+ * it back before returning. Otherwise nested indexes on one host would wait on each other forever.
+ *
+ * While waiting for the children to finish, any child the executor hasn't started yet is run on the
+ * waiting thread, so an expansion can't starve itself on a saturated or shared pool. An interrupt while
+ * waiting cancels the children and fails the expansion, with the interrupt flag set again.
+ */
+class IndexExpansion {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexExpansion.class);
+
+    // Semaphore of the host of the child being loaded on this thread, whose permit it holds
+    private static final ThreadLocal<Semaphore> HELD = new ThreadLocal<>();
+
+    interface ChildLoader {
+        void load(URL sitemapURL, DateTime lastModified) throws SitemapParseException;
+    }
+
+    private final Executor executor;
+    private final ConcurrentMap<String, Semaphore> hostPermits;
+    private final int maxConcurrentFetchesPerHost;
+    private final ChildLoader loader;
+
+    private final List<FutureTask<Void>> pending = new ArrayList<>();
+
+    IndexExpansion(Executor executor,
+                   ConcurrentMap<String, Semaphore> hostPermits,
+                   int maxConcurrentFetchesPerHost,
+                   ChildLoader loader) {
+        this.executor = executor;
+        this.hostPermits = hostPermits;
+        this.maxConcurrentFetchesPerHost = maxConcurrentFetchesPerHost;
+        this.loader = loader;
+    }
+
+    void submit(URL sitemapURL, DateTime lastModified) throws SitemapParseException {
+        if (executor == null) {
+            loader.load(sitemapURL, lastModified);
+            return;
+        }
+
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            load(sitemapURL, lastModified);
+            return null;
+        });
+
+        pending.add(task);
+        executor.execute(task);
+    }
+
+    void await() throws SitemapParseException {
+        // The document listing these children has been read, so its fetch is over
+        final Semaphore held = pending.isEmpty() ? null : HELD.get();
+
+        if (held != null) {
+            held.release();
+        }
+
+        try {
+            for (FutureTask<Void> task : pending) {
+                // no-op if the executor already picked it up
+                task.run();
+                task.get();
+            }
+
+        } catch (InterruptedException ex) {
+            String message = "Thread interrupted while waiting for child sitemaps";
+            logger.warn(message);
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new SitemapParseException(message, ex);
+
+        } catch (ExecutionException ex) {
+            cancel();
+
+            if (ex.getCause() instanceof SitemapParseException) {
+                throw (SitemapParseException) ex.getCause();
+            }
+
+            String message = "Failed to load child sitemap";
+            logger.error(message, ex.getCause());
+            throw new SitemapParseException(message, ex.getCause());
+
+        } finally {
+            pending.clear();
+
+            // A retry of the document is a fetch again
+            if (held != null) {
+                held.acquireUninterruptibly();
+            }
+        }
+    }
+
+    private void load(URL sitemapURL, DateTime lastModified) throws SitemapParseException, InterruptedException {
+        if (maxConcurrentFetchesPerHost == Integer.MAX_VALUE) {
+            loader.load(sitemapURL, lastModified);
+            return;
+        }
+
+        Semaphore permits = hostPermits.computeIfAbsent(
+                sitemapURL.getHost().toLowerCase(Locale.ROOT), host -> new Semaphore(maxConcurrentFetchesPerHost));
+
+        permits.acquire();
+
+        // Children run inline by await() nest on the same thread
+        final Semaphore previous = HELD.get();
+        HELD.set(permits);
+
+        try {
+            loader.load(sitemapURL, lastModified);
+        } finally {
+            HELD.set(previous);
+            permits.release();
+        }
+    }
+
+    void cancel() {
+        pending.forEach(task -> task.cancel(true));
+        pending.clear();
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.parse;
+
+import com.widowcrawler.exo.model.URLNormalizer;
+import org.joda.time.DateTime;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author Scott Mansfield
+ *
+ * The &lt;lastmod&gt; of each child sitemap as of a previous expansion of a sitemap index, used to only
+ * fetch the children that changed since. A child is skipped when its lastmod in the index is not after
+ * its own watermark, or the global one if it has none. Children without a lastmod are always fetched.
+ *
+ * Watermarks are advanced as children are expanded, so after a run the same instance (or the contents of
+ * {@link #asMap()}) can be handed to the next one. Instances are thread-safe.
+ */
+public class IndexWatermarks {
+
+    private final DateTime global;
+    private final ConcurrentMap<String, DateTime> watermarks = new ConcurrentHashMap<>();
+
+    public IndexWatermarks() {
+        this(null);
+    }
+
+    /**
+     * @param global watermark for children that don't have their own, may be null
+     */
+    public IndexWatermarks(DateTime global) {
+        this.global = global;
+    }
+
+    /**
+     * @param watermarks per-child watermarks keyed by normalized URL, as returned by {@link #asMap()}
+     */
+    public IndexWatermarks(DateTime global, Map<String, DateTime> watermarks) {
+        this(global);
+        this.watermarks.putAll(watermarks);
+    }
+
+    public DateTime get(URL sitemapURL) {
+        DateTime watermark = watermarks.get(URLNormalizer.normalize(sitemapURL));
+        return watermark == null ? global : watermark;
+    }
+
+    public boolean isModified(URL sitemapURL, DateTime lastModified) {
+        if (lastModified == null) {
+            return true;
+        }
+
+        DateTime watermark = get(sitemapURL);
+        return watermark == null || lastModified.isAfter(watermark);
+    }
+
+    /**
+     * Raises the watermark of the child sitemap to lastModified, if that's later than what it has now.
+     */
+    public void advance(URL sitemapURL, DateTime lastModified) {
+        if (lastModified == null) {
+            return;
+        }
+
+        watermarks.merge(URLNormalizer.normalize(sitemapURL), lastModified,
+                (current, next) -> next.isAfter(current) ? next : current);
+    }
+
+    /**
+     * @return the per-child watermarks, keyed by normalized URL
+     */
+    public Map<String, DateTime> asMap() {
+        return Collections.unmodifiableMap(watermarks);
+    }
+}
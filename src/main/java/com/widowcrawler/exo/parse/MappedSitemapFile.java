@@ -0,0 +1,499 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.parse;
+
+import com.widowcrawler.exo.SitemapParseException;
+import com.widowcrawler.exo.model.SitemapURL;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Scott Mansfield
+ *
+ * A urlset file cut into chunks at &lt;url&gt; start tags, so the chunks can be parsed in parallel. Each
+ * chunk is parsed as a document of its own: the bytes of the file up to and including the root start tag,
+ * which carry the XML declaration and the namespace declarations, then the chunk, then a closing root tag.
+ * The last chunk ends with the file's own closing tag.
+ *
+ * Line and column numbers of errors are translated back to the file, so they read the same as from a
+ * sequential parse.
+ *
+ * Chunk boundaries are found by a plain byte search, which would be fooled by a &lt;url&gt; tag inside a
+ * comment or CDATA section. That makes the two chunks malformed, so it fails the parse rather than
+ * losing URLs.
+ */
+class MappedSitemapFile {
+
+    static final long MAX_CHUNK_SIZE = 256L << 20;
+
+    private static final int WINDOW = 64 * 1024;
+    private static final int HEADER_LIMIT = 1 << 20;
+
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._-]+)[\"']");
+    private static final Pattern PARSE_ERROR = Pattern.compile("^ParseError at \\[row,col\\]:\\[-?\\d+,-?\\d+\\]\\s*Message: ",
+            Pattern.DOTALL);
+
+    private final FileChannel channel;
+    private final long size;
+    private final byte[] header;
+    private final byte[] footer;
+    private final byte[] prefix;
+    private final long footerStart;
+    private final int headerLines;
+    private final int headerLastLineChars;
+
+    private MappedSitemapFile(FileChannel channel, long size, byte[] header, String rootName, long footerStart) {
+        this.channel = channel;
+        this.size = size;
+        this.header = header;
+        this.footer = ("</" + rootName + ">").getBytes(StandardCharsets.US_ASCII);
+        this.prefix = rootName.substring(0, rootName.indexOf(':') + 1).getBytes(StandardCharsets.US_ASCII);
+        this.footerStart = footerStart;
+
+        int lines = 0;
+        int lastLineStart = 0;
+
+        for (int i = 0; i < header.length; i++) {
+            if (header[i] == '\n') {
+                lines++;
+                lastLineStart = i + 1;
+            }
+        }
+
+        this.headerLines = lines;
+        this.headerLastLineChars = chars(header, lastLineStart, header.length);
+    }
+
+    /**
+     * @return null if the file can't be split, e.g. if it's gzipped, UTF-16, has a DOCTYPE or is a sitemap
+     *         index; a sequential parse handles, or reports, all of those
+     */
+    static MappedSitemapFile open(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final byte[] head = read(channel, 0L, (int) Math.min(size, HEADER_LIMIT));
+        final int n = head.length;
+
+        if (n < 4 || (head[0] == 0x1f && head[1] == (byte) 0x8b) || head[0] == 0 || head[1] == 0 ||
+                (head[0] == (byte) 0xfe && head[1] == (byte) 0xff) || (head[0] == (byte) 0xff && head[1] == (byte) 0xfe)) {
+            return null;
+        }
+
+        int i = head[0] == (byte) 0xef && head[1] == (byte) 0xbb && head[2] == (byte) 0xbf ? 3 : 0;
+
+        // XML declaration, processing instructions and comments before the root
+        while (true) {
+            while (i < n && isWhitespace(head[i])) {
+                i++;
+            }
+
+            if (i >= n || head[i] != '<') {
+                return null;
+            }
+
+            if (startsWith(head, i, "<?")) {
+                int end = indexOf(head, i, "?>");
+                if (end < 0) {
+                    return null;
+                }
+
+                if (startsWith(head, i, "<?xml") && isWhitespace(head[i + 5])) {
+                    Matcher encoding = ENCODING.matcher(new String(head, i, end - i, StandardCharsets.US_ASCII));
+                    if (encoding.find() && !isAsciiCompatible(encoding.group(1))) {
+                        return null;
+                    }
+                }
+
+                i = end + 2;
+
+            } else if (startsWith(head, i, "<!--")) {
+                int end = indexOf(head, i + 4, "-->");
+                if (end < 0) {
+                    return null;
+                }
+
+                i = end + 3;
+
+            } else if (i + 1 >= n || head[i + 1] == '!') {
+                // Cut off after the '<', or a DOCTYPE, which may declare entities used anywhere in the document
+                return null;
+
+            } else {
+                break;
+            }
+        }
+
+        int nameEnd = i + 1;
+        while (nameEnd < n && !isWhitespace(head[nameEnd]) && head[nameEnd] != '>' && head[nameEnd] != '/') {
+            nameEnd++;
+        }
+
+        String rootName = new String(head, i + 1, nameEnd - i - 1, StandardCharsets.US_ASCII);
+        if (!rootName.substring(rootName.indexOf(':') + 1).equalsIgnoreCase("urlset")) {
+            return null;
+        }
+
+        // '>' may appear in quoted attribute values
+        int end = nameEnd;
+        byte quote = 0;
+
+        for (; end < n; end++) {
+            byte b = head[end];
+
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                break;
+            }
+        }
+
+        if (end >= n || head[end - 1] == '/') {
+            return null;
+        }
+
+        final int rootEnd = end + 1;
+        final long footerStart = lastIndexOf(channel, size, rootEnd, ("</" + rootName).getBytes(StandardCharsets.US_ASCII));
+
+        if (footerStart < 0) {
+            return null;
+        }
+
+        return new MappedSitemapFile(channel, size, Arrays.copyOf(head, rootEnd), rootName, footerStart);
+    }
+
+    /**
+     * Offsets in the file at which each chunk starts, about chunkSize apart. The first starts right after
+     * the root start tag, the others at a &lt;url&gt; start tag.
+     */
+    List<Long> chunkStarts(long chunkSize) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        starts.add((long) header.length);
+
+        long next = header.length + chunkSize;
+
+        while (next < footerStart) {
+            long start = findURLStart(next);
+
+            if (start < 0) {
+                break;
+            }
+
+            starts.add(start);
+            next = start + chunkSize;
+        }
+
+        return starts;
+    }
+
+    long getBodySize() {
+        return footerStart - header.length;
+    }
+
+    /**
+     * Parses the chunk from start to end, or to the end of the file if last.
+     *
+     * @return the number of URLs in it
+     */
+    int parseChunk(Parser parser, long start, long end, boolean last, Consumer<SitemapURL> consumer)
+            throws IOException, XMLStreamException, SitemapParseException {
+
+        if (end - start > Integer.MAX_VALUE) {
+            throw new SitemapParseException("No <url> element to split at for over 2 GiB from offset " + start);
+        }
+
+        final ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        final InputStream document = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(header),
+                new ByteBufferInputStream(region),
+                new ByteArrayInputStream(last ? new byte[0] : footer))));
+
+        final Translator translator = new Translator(start);
+        final XMLStreamReader reader = new StreamReaderDelegate(Parser.XML_INPUT_FACTORY.createXMLStreamReader(document)) {
+            @Override
+            public Location getLocation() {
+                return translator.translate(super.getLocation());
+            }
+        };
+
+        final int[] urls = {0};
+
+        try {
+            parser.parse(reader, sitemapURL -> {
+                urls[0]++;
+                consumer.accept(sitemapURL);
+            }, (childSitemapURL, lastModified) -> {
+                throw new SitemapParseException("Unexpected child sitemap in a urlset: " + childSitemapURL);
+            });
+
+        } catch (XMLStreamException ex) {
+            throw translator.translate(ex);
+
+        } finally {
+            reader.close();
+        }
+
+        return urls[0];
+    }
+
+    private long findURLStart(long from) throws IOException {
+        // '<', the root's prefix, "url" and the character after the name
+        final int tokenLength = 1 + prefix.length + 4;
+
+        for (long position = from; position < footerStart; position += WINDOW) {
+            byte[] window = read(channel, position, (int) Math.min(WINDOW + tokenLength, footerStart - position));
+            int limit = Math.min(WINDOW, window.length - tokenLength + 1);
+
+            for (int i = 0; i < limit; i++) {
+                if (window[i] == '<' && isURLStartTag(window, i + 1)) {
+                    return position + i;
+                }
+            }
+        }
+
+        return -1L;
+    }
+
+    private boolean isURLStartTag(byte[] bytes, int i) {
+        for (byte b : prefix) {
+            if (bytes[i++] != b) {
+                return false;
+            }
+        }
+
+        return (bytes[i] | 0x20) == 'u' && (bytes[i + 1] | 0x20) == 'r' && (bytes[i + 2] | 0x20) == 'l' &&
+                (isWhitespace(bytes[i + 3]) || bytes[i + 3] == '>' || bytes[i + 3] == '/');
+    }
+
+    /**
+     * Maps locations in a chunk's document back to the file. The header is the start of the file, so up to
+     * the end of it nothing changes. The chunk's lines shift down to where the chunk starts in the file,
+     * and on its first line the columns shift over by what the header and chunk start don't share.
+     */
+    private class Translator {
+        private final long start;
+        private int startLine = -1;
+        private int startColumn;
+
+        private Translator(long start) {
+            this.start = start;
+        }
+
+        Location translate(Location location) {
+            if (location == null || location instanceof FileLocation) {
+                return location;
+            }
+
+            int line = location.getLineNumber();
+            int column = location.getColumnNumber();
+
+            if (line <= headerLines || (line == headerLines + 1 && column <= headerLastLineChars)) {
+                return new FileLocation(line, column);
+            }
+
+            locateStart();
+
+            if (line == headerLines + 1) {
+                return new FileLocation(startLine, startColumn + column - headerLastLineChars - 1);
+            }
+
+            return new FileLocation(startLine + line - headerLines - 1, column);
+        }
+
+        XMLStreamException translate(XMLStreamException ex) {
+            if (ex.getLocation() == null || ex.getLocation() instanceof FileLocation) {
+                return ex;
+            }
+
+            String message = PARSE_ERROR.matcher(String.valueOf(ex.getMessage())).replaceFirst("");
+            return new XMLStreamException(message, translate(ex.getLocation()), ex);
+        }
+
+        // Only needed for errors, so the file up to the chunk is only scanned then
+        private void locateStart() {
+            if (startLine >= 0) {
+                return;
+            }
+
+            int lines = 0;
+            int column = 0;
+
+            try {
+                for (long position = 0; position < start; position += WINDOW) {
+                    byte[] window = read(channel, position, (int) Math.min(WINDOW, start - position));
+
+                    for (byte b : window) {
+                        if (b == '\n') {
+                            lines++;
+                            column = 0;
+                        } else if ((b & 0xc0) != 0x80) {
+                            column++;
+                        }
+                    }
+                }
+
+            } catch (IOException ex) {
+                // Report the location within the chunk rather than none
+                lines = headerLines;
+                column = headerLastLineChars;
+            }
+
+            startLine = lines + 1;
+            startColumn = column + 1;
+        }
+    }
+
+    private static class FileLocation implements Location {
+        private final int line;
+        private final int column;
+
+        private FileLocation(int line, int column) {
+            this.line = line;
+            this.column = column;
+        }
+
+        @Override
+        public int getLineNumber() {
+            return line;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return column;
+        }
+
+        @Override
+        public int getCharacterOffset() {
+            return -1;
+        }
+
+        @Override
+        public String getPublicId() {
+            return null;
+        }
+
+        @Override
+        public String getSystemId() {
+            return null;
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+
+        return buffer.position() == length ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static long lastIndexOf(FileChannel channel, long size, long from, byte[] token) throws IOException {
+        long tailStart = Math.max(from, size - WINDOW);
+        byte[] tail = read(channel, tailStart, (int) (size - tailStart));
+
+        for (int i = tail.length - token.length - 1; i >= 0; i--) {
+            byte after = tail[i + token.length];
+
+            if ((isWhitespace(after) || after == '>') && startsWith(tail, i, token)) {
+                return tailStart + i;
+            }
+        }
+
+        return -1L;
+    }
+
+    // UTF-8 continuation bytes don't start a character
+    private static int chars(byte[] bytes, int from, int to) {
+        int chars = 0;
+
+        for (int i = from; i < to; i++) {
+            if ((bytes[i] & 0xc0) != 0x80) {
+                chars++;
+            }
+        }
+
+        return chars;
+    }
+
+    private static boolean isAsciiCompatible(String encoding) {
+        try {
+            Charset charset = Charset.forName(encoding);
+            return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII) ||
+                    charset.equals(StandardCharsets.ISO_8859_1);
+
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, String prefix) {
+        return startsWith(bytes, offset, prefix.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+        if (offset + prefix.length > bytes.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, int from, String token) {
+        byte[] target = token.getBytes(StandardCharsets.US_ASCII);
+
+        for (int i = from; i + target.length <= bytes.length; i++) {
+            if (startsWith(bytes, i, target)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
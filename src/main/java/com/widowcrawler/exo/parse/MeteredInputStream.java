@@ -0,0 +1,91 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.parse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Counts the bytes read through it and the time spent waiting on the stream underneath. Mark and reset
+ * aren't passed through, so a re-read after a reset can't be counted twice; buffer above it instead.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+    private long bytes;
+    private long nanos;
+
+    MeteredInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = in.read();
+        nanos += System.nanoTime() - start;
+
+        if (b >= 0) {
+            bytes++;
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int count = in.read(b, off, len);
+        nanos += System.nanoTime() - start;
+
+        if (count > 0) {
+            bytes += count;
+        }
+
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        bytes += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) { }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getNanos() {
+        return nanos;
+    }
+}
@@ -18,29 +18,52 @@ package com.widowcrawler.exo.parse;
 
 import com.widowcrawler.exo.Exo;
 import com.widowcrawler.exo.SitemapParseException;
-import com.widowcrawler.exo.model.ChangeFreq;
+import com.widowcrawler.exo.metrics.DocumentStats;
+import com.widowcrawler.exo.metrics.MetricsListener;
 import com.widowcrawler.exo.model.Sitemap;
 import com.widowcrawler.exo.model.SitemapURL;
-import com.widowcrawler.exo.retry.Retry;
 import com.widowcrawler.exo.retry.RetryFailedException;
+import com.widowcrawler.exo.retry.RetryPolicy;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.xml.stream.*;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Collections;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
 /**
  * @author Scott Mansfield
  *
+ * Parser instances hold only configuration, all of the state of a parse lives in the parse call itself.
+ * A single instance can be reused and shared between threads.
+ *
  * urlset
  *   url*
  *     loc - URI (required)
@@ -57,18 +80,17 @@ public class Parser {
 
     private static final Logger logger = LoggerFactory.getLogger(Parser.class);
 
-    private static final String URLSET_TAG_NAME = "urlset";
-    private static final String SITEMAPINDEX_TAG_NAME = "sitemapindex";
-
-    private static final String URL_TAG_NAME = "url";
-    private static final String SITEMAP_TAG_NAME = "sitemap";
+    private static final int GZIP_BUFFER_SIZE = 8192;
 
-    private static final String LOC_TAG_NAME = "loc";
-    private static final String LASTMOD_TAG_NAME = "lastmod";
-    private static final String CHANGEFREQ_TAG_NAME = "changefreq";
-    private static final String PRIORITY_TAG_NAME = "priority";
+    // Creating a factory does service loader discovery, so it's done once. Factories are safe to share
+    // once they're configured.
+    static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
 
-    private static final String MOBILE_TAG_NAME = "mobile";
+    private static XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
 
     private static String getEventTypeString(int eventType) {
         switch (eventType) {
@@ -91,6 +113,58 @@ public class Parser {
         return "UNKNOWN_EVENT_TYPE: " + eventType;
     }
 
+    private enum Tag {
+        URLSET("urlset"),
+        SITEMAPINDEX("sitemapindex"),
+        URL("url"),
+        SITEMAP("sitemap"),
+        LOC("loc"),
+        LASTMOD("lastmod"),
+        CHANGEFREQ("changefreq"),
+        PRIORITY("priority"),
+        MOBILE("mobile"),
+        OTHER(null);
+
+        // values() copies the array on every call
+        private static final Tag[] TAGS = values();
+        private static final Map<String, Tag> BY_NAME = new HashMap<>();
+
+        static {
+            for (Tag tag : TAGS) {
+                if (tag.name != null) {
+                    BY_NAME.put(tag.name, tag);
+                }
+            }
+        }
+
+        private final String name;
+
+        Tag(String name) {
+            this.name = name;
+        }
+
+        /**
+         * The reader returns the same String instance every time it sees a name and Strings cache their
+         * hash, so the common lower case spelling is a lookup without allocation. Other spellings are
+         * compared ignoring case, also without making a lower case copy.
+         */
+        static Tag of(String localName) {
+            Tag tag = BY_NAME.get(localName);
+
+            if (tag != null) {
+                return tag;
+            }
+
+            for (Tag candidate : TAGS) {
+                if (candidate.name != null && candidate.name.equalsIgnoreCase(localName)) {
+                    return candidate;
+                }
+            }
+
+            return OTHER;
+        }
+    }
+
     private enum State {
         START,
         END,
@@ -114,21 +188,380 @@ public class Parser {
         return message;
     }
 
-    private State state = State.START;
+    /**
+     * Default cap on the depth of nested sitemap indexes. The protocol doesn't allow nesting at all, but
+     * some sites do it anyway.
+     */
+    public static final int DEFAULT_MAX_DEPTH = 10;
+
+    // Below this a chunk isn't worth a task of its own
+    static final long MIN_CHUNK_SIZE = 1L << 20;
+
+    // The expansion the document being read on this thread is part of, null for a root. Set around each
+    // child load, which runs entirely on one thread whether that's the parent's or the executor's. Static,
+    // as the loader may hand the child to a different Parser instance.
+    private static final ThreadLocal<ExpansionContext> EXPANSION = new ThreadLocal<>();
+
+    private final SitemapLoader loader;
+    private final ExecutorService executor;
+    private final int maxConcurrentFetchesPerHost;
+    private final MetricsListener metrics;
+    private final RetryPolicy retryPolicy;
+    private final int maxDepth;
+    private final int maxChildSitemaps;
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    public Parser() {
+        this(Exo::parse, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a parser that fetches the child sitemaps of a sitemap index in parallel on the given executor,
+     * with at most maxConcurrentFetchesPerHost fetches in flight to any one host. URLs are streamed as each
+     * child sitemap is read, from whichever thread read it; calls to the consumer are serialized.
+     */
+    public Parser(ExecutorService executor, int maxConcurrentFetchesPerHost) {
+        this(Exo::parse, executor, maxConcurrentFetchesPerHost);
+    }
+
+    /**
+     * Creates a parser that loads the child sitemaps of a sitemap index through the given loader, e.g. so
+     * they are fetched with the same HTTP client as the index itself. The executor may be null, in which
+     * case children are loaded one at a time on the parsing thread.
+     */
+    public Parser(SitemapLoader loader, ExecutorService executor, int maxConcurrentFetchesPerHost) {
+        this(loader, executor, maxConcurrentFetchesPerHost, MetricsListener.NONE);
+    }
+
+    /**
+     * As above, reporting the stats of every document read and every retry of a child sitemap to metrics.
+     */
+    public Parser(SitemapLoader loader, ExecutorService executor, int maxConcurrentFetchesPerHost,
+                  MetricsListener metrics) {
+
+        this(loader, executor, maxConcurrentFetchesPerHost, metrics, RetryPolicy.DEFAULT);
+    }
+
+    /**
+     * As above, retrying failed child sitemaps according to retryPolicy.
+     */
+    public Parser(SitemapLoader loader, ExecutorService executor, int maxConcurrentFetchesPerHost,
+                  MetricsListener metrics, RetryPolicy retryPolicy) {
+
+        this(loader, executor, maxConcurrentFetchesPerHost, metrics, retryPolicy, DEFAULT_MAX_DEPTH, Integer.MAX_VALUE);
+    }
+
+    /**
+     * As above, expanding sitemap indexes at most maxDepth levels deep and fetching at most maxChildSitemaps
+     * child sitemaps in total per expansion. See {@link ExpansionContext}.
+     */
+    public Parser(SitemapLoader loader, ExecutorService executor, int maxConcurrentFetchesPerHost,
+                  MetricsListener metrics, RetryPolicy retryPolicy, int maxDepth, int maxChildSitemaps) {
+
+        if (maxConcurrentFetchesPerHost < 1) {
+            throw new IllegalArgumentException("maxConcurrentFetchesPerHost must be at least 1");
+        }
+
+        if (maxDepth < 0 || maxChildSitemaps < 0) {
+            throw new IllegalArgumentException("maxDepth and maxChildSitemaps must not be negative");
+        }
+
+        this.loader = loader;
+        this.executor = executor;
+        this.maxConcurrentFetchesPerHost = maxConcurrentFetchesPerHost;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+        this.maxDepth = maxDepth;
+        this.maxChildSitemaps = maxChildSitemaps;
+    }
+
+    /**
+     * Starts a new expansion with this parser's limits, for driving expansion from the outside with
+     * {@link #parseDocument}.
+     *
+     * @param root location of the root document, may be null
+     */
+    public ExpansionContext newExpansion(URL root) {
+        return new ExpansionContext(root, maxDepth, maxChildSitemaps);
+    }
 
     public Sitemap parse(String data) throws IOException, XMLStreamException, SitemapParseException {
-        return parse(new ByteArrayInputStream(data.getBytes("utf-8")));
+        final Set<SitemapURL> sitemapURLs = new HashSet<>();
+
+        parse(new ByteArrayInputStream(data.getBytes("utf-8")), "utf-8", sitemapURLs::add);
+
+        return new Sitemap(sitemapURLs);
     }
 
     public Sitemap parse(InputStream inputStream) throws XMLStreamException, SitemapParseException {
+        final Set<SitemapURL> sitemapURLs = new HashSet<>();
 
-        final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream, "utf-8");
+        parse(inputStream, sitemapURLs::add);
 
-        final Sitemap retval = new Sitemap(new HashSet<>());
+        return new Sitemap(sitemapURLs);
+    }
 
-        final Set<SitemapURL> sitemapURLs = new HashSet<>();
+    /**
+     * Streams the URLs in the document to the given consumer. Each URL is handed off as soon as its closing
+     * &lt;/url&gt; tag is read and nothing is kept afterwards, so memory use does not depend on the size of the
+     * document. The URLs of every child sitemap of a sitemap index are streamed to the same consumer.
+     *
+     * Child sitemaps that fail for a reason that may go away, like a 503 or a dropped connection, are retried,
+     * so a consumer may see a URL more than once.
+     */
+    public void parse(InputStream inputStream, Consumer<SitemapURL> consumer) throws XMLStreamException, SitemapParseException {
+        parse(inputStream, null, consumer);
+    }
+
+    public Sitemap parse(Path path) throws IOException, XMLStreamException, SitemapParseException {
+        final Set<SitemapURL> sitemapURLs = ConcurrentHashMap.newKeySet();
+
+        parse(path, concurrent(sitemapURLs::add), ForkJoinPool.commonPool());
+
+        return new Sitemap(sitemapURLs);
+    }
+
+    /**
+     * Streams the URLs in a local sitemap file, parsing it in parallel on the given pool. The file is memory
+     * mapped and cut into chunks at &lt;url&gt; start tags, about four per thread of the pool, each parsed as a
+     * document of its own with the root element's namespaces. Errors report lines and columns in the file.
+     *
+     * The consumer is called from the pool's threads, one at a time unless it's marked {@link #concurrent},
+     * and not after this returns. The order of URLs is only kept within a chunk.
+     *
+     * Files that can't be split this way, e.g. gzipped, UTF-16, small or sitemap index files, are parsed
+     * sequentially on the calling thread as by {@link #parse(InputStream, Consumer)}.
+     */
+    public void parse(Path path, Consumer<SitemapURL> consumer, ForkJoinPool pool)
+            throws IOException, XMLStreamException, SitemapParseException {
+
+        parse(path, consumer, pool, MIN_CHUNK_SIZE);
+    }
+
+    void parse(Path path, Consumer<SitemapURL> consumer, ForkJoinPool pool, long minChunkSize)
+            throws IOException, XMLStreamException, SitemapParseException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedSitemapFile file = MappedSitemapFile.open(channel);
+
+            if (file == null || file.getBodySize() < 2 * minChunkSize) {
+                try (InputStream inputStream = new BufferedInputStream(Channels.newInputStream(channel.position(0L)))) {
+                    parse(inputStream, consumer);
+                }
+                return;
+            }
+
+            final long start = System.nanoTime();
+            final Consumer<SitemapURL> sink = synchronize(consumer);
+            final long chunkSize = Math.max(minChunkSize, Math.min(MappedSitemapFile.MAX_CHUNK_SIZE,
+                    file.getBodySize() / (pool.getParallelism() * 4L)));
+
+            final List<Long> starts = file.chunkStarts(chunkSize);
+            final List<CompletableFuture<Integer>> chunks = new ArrayList<>(starts.size());
+            final AtomicBoolean failed = new AtomicBoolean();
+
+            for (int i = 0; i < starts.size(); i++) {
+                final long chunkStart = starts.get(i);
+                final boolean last = i == starts.size() - 1;
+                final long chunkEnd = last ? channel.size() : starts.get(i + 1);
+
+                chunks.add(CompletableFuture.supplyAsync(() -> {
+                    // Chunks not started yet when one fails are skipped
+                    if (failed.get()) {
+                        return 0;
+                    }
+
+                    try {
+                        return file.parseChunk(this, chunkStart, chunkEnd, last, sink);
+                    } catch (Exception ex) {
+                        failed.set(true);
+                        throw new CompletionException(ex);
+                    }
+                }, pool));
+            }
+
+            // Waits for every chunk, so the consumer isn't called after returning, then reports the failure
+            // of the first chunk to fail in the file
+            int urls = 0;
+            Throwable failure = null;
+
+            for (CompletableFuture<Integer> chunk : chunks) {
+                try {
+                    urls += chunk.join();
+                } catch (CompletionException ex) {
+                    if (failure == null) {
+                        failure = ex.getCause() == null ? ex : ex.getCause();
+                    }
+                }
+            }
+
+            if (failure instanceof XMLStreamException) {
+                throw (XMLStreamException) failure;
+            } else if (failure instanceof SitemapParseException) {
+                throw (SitemapParseException) failure;
+            } else if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw (Error) failure;
+            }
+
+            metrics.parsed(new DocumentStats(channel.size(), false, 0L, 0L, System.nanoTime() - start, urls, 0, 0));
+        }
+    }
+
+    /**
+     * Streams the URLs in the document, decoding it with the given charset. If charset is null the encoding
+     * is detected from the byte order mark and XML declaration, falling back to UTF-8.
+     *
+     * Gzipped documents (sitemap.xml.gz) are recognized by their magic bytes and decompressed as they are
+     * read, regardless of file name or HTTP headers.
+     */
+    public void parse(InputStream inputStream, String charset, Consumer<SitemapURL> consumer)
+            throws XMLStreamException, SitemapParseException {
+
+        parse(inputStream, charset, consumer, null);
+    }
+
+    /**
+     * Incremental version of {@link #parse(InputStream, String, Consumer)}. The child sitemaps of a sitemap
+     * index are only fetched if their &lt;lastmod&gt; in the index is after their watermark, the rest are
+     * skipped entirely. The watermark of each child is advanced once it has been read.
+     */
+    public void parse(InputStream inputStream, String charset, Consumer<SitemapURL> consumer,
+                      IndexWatermarks watermarks) throws XMLStreamException, SitemapParseException {
+
+        parse(inputStream, charset, consumer, watermarks, null);
+    }
+
+    /**
+     * As above, for a document fetched from the given location. If the document is a sitemap index that
+     * lists itself, it isn't fetched again. The location is ignored for child sitemaps, which are tracked
+     * by the expansion of their index.
+     */
+    public void parse(InputStream inputStream, String charset, Consumer<SitemapURL> consumer,
+                      IndexWatermarks watermarks, URL location) throws XMLStreamException, SitemapParseException {
+
+        final ExpansionContext current = EXPANSION.get();
+        final ExpansionContext context = current == null ? newExpansion(location) : current;
+        final ExpansionContext children = context.next();
+        final List<URL> admitted = new ArrayList<>();
+
+        final Consumer<SitemapURL> sink = executor == null ? consumer : synchronize(consumer);
+        final IndexExpansion expansion = new IndexExpansion(executor, hostPermits, maxConcurrentFetchesPerHost,
+                (childSitemapURL, lastModified) -> {
+                    parseChildSitemap(childSitemapURL, sink, children);
+
+                    if (watermarks != null) {
+                        watermarks.advance(childSitemapURL, lastModified);
+                    }
+                });
+
+        try {
+            readDocument(inputStream, charset, consumer, (childSitemapURL, lastModified) -> {
+                if (watermarks != null && !watermarks.isModified(childSitemapURL, lastModified)) {
+                    logger.debug("Skipping unmodified sitemap " + childSitemapURL);
+
+                } else if (context.admit(childSitemapURL)) {
+                    admitted.add(childSitemapURL);
+                    expansion.submit(childSitemapURL, lastModified);
+                }
+            }, context.getDepth());
+
+            expansion.await();
+
+        } catch (XMLStreamException | SitemapParseException | RuntimeException ex) {
+            expansion.cancel();
+            // If this document is retried its children have to be fetched again
+            context.forget(admitted);
+            throw ex;
+        }
+    }
+
+    /**
+     * Parses a single document without expanding it. URLs are streamed to the consumer as with
+     * {@link #parse(InputStream, String, Consumer)}, but for a sitemap index the location of each child
+     * sitemap is handed to childSitemapConsumer, along with its &lt;lastmod&gt; if it has one, instead of
+     * being fetched. Used to drive expansion from the outside, e.g. asynchronously.
+     */
+    public void parseDocument(InputStream inputStream, String charset, Consumer<SitemapURL> consumer,
+                              BiConsumer<URL, DateTime> childSitemapConsumer) throws XMLStreamException, SitemapParseException {
+
+        parseDocument(inputStream, charset, consumer, childSitemapConsumer, 0);
+    }
+
+    /**
+     * As above, for a document at the given depth in the index tree, which is reported in its stats.
+     */
+    public void parseDocument(InputStream inputStream, String charset, Consumer<SitemapURL> consumer,
+                              BiConsumer<URL, DateTime> childSitemapConsumer, int depth)
+            throws XMLStreamException, SitemapParseException {
+
+        readDocument(inputStream, charset, consumer, childSitemapConsumer::accept, depth);
+    }
+
+    private void readDocument(InputStream inputStream, String charset, Consumer<SitemapURL> consumer,
+                              IndexExpansion.ChildLoader children, int depth)
+            throws XMLStreamException, SitemapParseException {
+
+        final long start = System.nanoTime();
+        final MeteredInputStream raw = new MeteredInputStream(inputStream);
+        final MeteredInputStream inflated;
+        final InputStream document;
+
+        try {
+            InputStream decompressed = decompressIfGzipped(raw);
+            inflated = decompressed instanceof GZIPInputStream ? new MeteredInputStream(decompressed) : null;
+            document = inflated == null ? decompressed : inflated;
+
+        } catch (IOException ex) {
+            throw new XMLStreamException("Error reading gzip header", ex);
+        }
+
+        final XMLStreamReader reader = charset == null
+                ? XML_INPUT_FACTORY.createXMLStreamReader(document)
+                : XML_INPUT_FACTORY.createXMLStreamReader(document, charset);
+
+        final int[] urls = {0};
+        final int[] childSitemaps = {0};
+        final long[] childNanos = {0L};
+
+        try {
+            parse(reader,
+                    sitemapURL -> {
+                        urls[0]++;
+                        consumer.accept(sitemapURL);
+                    },
+                    (childSitemapURL, lastModified) -> {
+                        long childStart = System.nanoTime();
+                        childSitemaps[0]++;
+                        children.load(childSitemapURL, lastModified);
+                        childNanos[0] += System.nanoTime() - childStart;
+                    });
+        } finally {
+            reader.close();
+        }
+
+        // Inflating reads from the raw stream, so its time includes the raw read time. Children loaded
+        // inline are reported on their own.
+        long total = System.nanoTime() - start - childNanos[0];
+        long readNanos = raw.getNanos();
+        long decompressNanos = inflated == null ? 0L : inflated.getNanos() - readNanos;
+
+        metrics.parsed(new DocumentStats(raw.getBytes(), inflated != null, readNanos, decompressNanos,
+                total - readNanos - decompressNanos, urls[0], childSitemaps[0], depth));
+    }
+
+    void parse(XMLStreamReader reader, Consumer<SitemapURL> consumer, IndexExpansion.ChildLoader children)
+            throws XMLStreamException, SitemapParseException {
+
+        State state = State.START;
         SitemapURL.Builder urlBuilder = null;
+        URL childSitemapURL = null;
+        DateTime childLastModified = null;
         String urlContent;
+        ElementText text = new ElementText();
 
         reader.getEventType();
 
@@ -137,9 +570,11 @@ public class Parser {
                 case START:
                     reader.nextTag();
 
-                    if (StringUtils.equalsIgnoreCase(reader.getLocalName(), URLSET_TAG_NAME)) {
+                    Tag root = Tag.of(reader.getLocalName());
+
+                    if (root == Tag.URLSET) {
                         state = State.URLSET;
-                    } else if (StringUtils.equalsIgnoreCase(reader.getLocalName(), SITEMAPINDEX_TAG_NAME)) {
+                    } else if (root == Tag.SITEMAPINDEX) {
                         state = State.SITEMAPINDEX;
                     } else {
                         String message = "Invalid root element. Must be either urlset or sitemapindex";
@@ -171,7 +606,7 @@ public class Parser {
                     }
 
                     // Check that we're entering into a <url> element
-                    if (!StringUtils.equalsIgnoreCase(reader.getLocalName(), URL_TAG_NAME)) {
+                    if (Tag.of(reader.getLocalName()) != Tag.URL) {
                         String message = "A <urlset> element can only contain <url> elements. Found: " + reader.getLocalName();
                         logger.error(message);
                         throw new SitemapParseException(message);
@@ -186,22 +621,22 @@ public class Parser {
 
                     if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
                         //logger.info("reader.getLocalName(): " + reader.getLocalName());
-                        switch (StringUtils.lowerCase(reader.getLocalName())) {
-                            case LOC_TAG_NAME:        state = State.URL_PROP_LOC;        break;
-                            case LASTMOD_TAG_NAME:    state = State.URL_PROP_LASTMOD;    break;
-                            case CHANGEFREQ_TAG_NAME: state = State.URL_PROP_CHANGEFREQ; break;
-                            case PRIORITY_TAG_NAME:   state = State.URL_PROP_PRIORITY;   break;
-                            case MOBILE_TAG_NAME:     state = State.URL_PROP_MOBILE;     break;
+                        switch (Tag.of(reader.getLocalName())) {
+                            case LOC:        state = State.URL_PROP_LOC;        break;
+                            case LASTMOD:    state = State.URL_PROP_LASTMOD;    break;
+                            case CHANGEFREQ: state = State.URL_PROP_CHANGEFREQ; break;
+                            case PRIORITY:   state = State.URL_PROP_PRIORITY;   break;
+                            case MOBILE:     state = State.URL_PROP_MOBILE;     break;
                             default:
                                 String message = "Unexpected tag in url: " + reader.getLocalName();
                                 logger.error(message);
                                 throw new SitemapParseException(message);
                         }
                     } else if (reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
-                        // we're done collecting the data for this URL
+                        // we're done collecting the data for this URL, hand it off right away
                         assert urlBuilder != null;
-                        sitemapURLs.add(urlBuilder.build());
-                        urlBuilder = new SitemapURL.Builder();
+                        consumer.accept(urlBuilder.build());
+                        urlBuilder = null;
                         state = State.URLSET;
                     }
                     break;
@@ -223,19 +658,19 @@ public class Parser {
 
                 case URL_PROP_LASTMOD:
                     assert urlBuilder != null;
-                    urlBuilder.withLastModified(DateTime.parse(reader.getElementText()));
+                    urlBuilder.withLastModified(text.read(reader).toDateTime());
                     state = State.URL;
                     break;
 
                 case URL_PROP_CHANGEFREQ:
                     assert urlBuilder != null;
-                    urlBuilder.withChangeFrequency(ChangeFreq.valueOf(StringUtils.upperCase(reader.getElementText())));
+                    urlBuilder.withChangeFrequency(text.read(reader).toChangeFreq());
                     state = State.URL;
                     break;
 
                 case URL_PROP_PRIORITY:
                     assert urlBuilder != null;
-                    urlBuilder.withPriority(Double.valueOf(reader.getElementText()));
+                    urlBuilder.withPriority(text.read(reader).toPriority());
                     state = State.URL;
                     break;
 
@@ -258,74 +693,160 @@ public class Parser {
                         break;
                     }
 
+                    if (Tag.of(reader.getLocalName()) != Tag.SITEMAP) {
+                        String message = "A <sitemapindex> element can only contain <sitemap> elements. Found: " + reader.getLocalName();
+                        logger.error(message);
+                        throw new SitemapParseException(message);
+                    }
+
+                    childSitemapURL = null;
+                    childLastModified = null;
                     state = State.SITEMAP;
                     break;
 
                 case SITEMAP:
-                    if (!StringUtils.equalsIgnoreCase(reader.getLocalName(), SITEMAP_TAG_NAME)) {
-                        throw new SitemapParseException("A <sitemapindex> element can only contain <sitemap> elements");
-                    }
-
                     reader.nextTag();
 
                     if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
-                        switch (StringUtils.lowerCase(reader.getLocalName())) {
-                            case LOC_TAG_NAME:     state = State.URL_PROP_LOC;     break;
-                            case LASTMOD_TAG_NAME: state = State.URL_PROP_LASTMOD; break;
+                        switch (Tag.of(reader.getLocalName())) {
+                            case LOC:     state = State.SITEMAP_PROP_LOC;     break;
+                            case LASTMOD: state = State.SITEMAP_PROP_LASTMOD; break;
                             default:
-                                throw new SitemapParseException("Unexpected tag in sitemap: " + reader.getLocalName());
+                                String message = "Unexpected tag in sitemap: " + reader.getLocalName();
+                                logger.error(message);
+                                throw new SitemapParseException(message);
                         }
                     } else if (reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
-                        // we're done collecting the data for this URL
-                        assert urlBuilder != null;
-                        sitemapURLs.add(urlBuilder.build());
-                        urlBuilder = new SitemapURL.Builder();
-                        state = State.URLSET;
+                        // we're done collecting the data for this sitemap, so go get it
+                        if (childSitemapURL == null) {
+                            String message = decorate("A <sitemap> element must contain a <loc> element", reader.getLocation());
+                            logger.error(message);
+                            throw new SitemapParseException(message);
+                        }
+
+                        children.load(childSitemapURL, childLastModified);
+                        state = State.SITEMAPINDEX;
                     }
+                    break;
 
                 case SITEMAP_PROP_LOC:
                     urlContent = reader.getElementText();
 
                     try {
-                        URL sitemapURL = new URL(StringUtils.trimToNull(urlContent));
-
-                        Sitemap temp = Retry.retry(() -> {
-                            try {
-                                return Exo.parse(sitemapURL.toString());
-                            } catch (Exception ex) {
-                                throw new RuntimeException(ex);
-                            }
-                        });
-
-                        retval.merge(temp);
+                        childSitemapURL = new URL(StringUtils.trimToNull(urlContent));
 
                     } catch (MalformedURLException ex) {
                         String message = String.format("Malformed URL found: %s", urlContent);
                         logger.error(message);
                         throw new SitemapParseException(message);
-
-                    } catch (InterruptedException e) {
-                        logger.warn("Thread interrupted while (re)trying");
-                        Thread.currentThread().interrupt();
-
-                    } catch (RetryFailedException e) {
-                        String message = String.format("Failed to retrieve sitemap of sitemap index at %s", urlContent);
-                        logger.error(message);
-                        throw new SitemapParseException(message);
                     }
 
-                    state = State.URL;
+                    state = State.SITEMAP;
                     break;
 
                 case SITEMAP_PROP_LASTMOD:
-                    // Do nothing with this data for now
-                    reader.getElementText();
+                    text.read(reader);
+
+                    try {
+                        childLastModified = text.toDateTime();
+
+                    } catch (IllegalArgumentException ex) {
+                        // Only used to skip unchanged sitemaps, so fetch it rather than fail
+                        logger.warn(decorate("Malformed lastmod in sitemap: " + text, reader.getLocation()));
+                        childLastModified = null;
+                    }
+
+                    state = State.SITEMAP;
                     break;
             }
 
             //System.out.println(state);
         }
+    }
+
+    private static InputStream decompressIfGzipped(InputStream inputStream) throws IOException {
+        InputStream in = inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream, GZIP_BUFFER_SIZE);
+
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+
+        if (first == (GZIPInputStream.GZIP_MAGIC & 0xff) && second == (GZIPInputStream.GZIP_MAGIC >>> 8)) {
+            return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+        }
+
+        return in;
+    }
+
+    private static final class ConcurrentConsumer implements Consumer<SitemapURL> {
+        private final Consumer<SitemapURL> consumer;
+
+        private ConcurrentConsumer(Consumer<SitemapURL> consumer) {
+            this.consumer = consumer;
+        }
 
-        return retval.merge(new Sitemap(sitemapURLs));
+        @Override
+        public void accept(SitemapURL sitemapURL) {
+            consumer.accept(sitemapURL);
+        }
+    }
+
+    /**
+     * Marks a consumer as safe to call from several threads at once, e.g. one that adds to a concurrent
+     * set. The URLs of child sitemaps loaded in parallel are then handed to it directly, instead of one
+     * at a time.
+     */
+    public static Consumer<SitemapURL> concurrent(Consumer<SitemapURL> consumer) {
+        return consumer instanceof ConcurrentConsumer ? consumer : new ConcurrentConsumer(consumer);
+    }
+
+    public static boolean isConcurrent(Consumer<SitemapURL> consumer) {
+        return consumer instanceof ConcurrentConsumer;
+    }
+
+    /**
+     * Serializes calls to the consumer, unless it's marked {@link #concurrent}.
+     */
+    public static Consumer<SitemapURL> synchronize(Consumer<SitemapURL> consumer) {
+        if (isConcurrent(consumer)) {
+            return consumer;
+        }
+
+        final Object lock = new Object();
+
+        return sitemapURL -> {
+            synchronized (lock) {
+                consumer.accept(sitemapURL);
+            }
+        };
+    }
+
+    private void parseChildSitemap(URL sitemapURL, Consumer<SitemapURL> consumer, ExpansionContext context)
+            throws SitemapParseException {
+
+        final String url = sitemapURL.toString();
+
+        ExpansionContext previous = EXPANSION.get();
+        EXPANSION.set(context);
+
+        try {
+            retryPolicy.call(() -> {
+                loader.load(url, consumer);
+                return null;
+            }, (attempt, cause, delayMillis) -> metrics.retried(url, attempt, cause));
+
+        } catch (InterruptedException e) {
+            logger.warn("Thread interrupted while (re)trying");
+            Thread.currentThread().interrupt();
+
+        } catch (RetryFailedException e) {
+            String message = String.format("Failed to retrieve sitemap of sitemap index at %s", sitemapURL);
+            logger.error(message);
+            throw new SitemapParseException(message, e.getCause());
+
+        } finally {
+            EXPANSION.set(previous);
+        }
     }
 }
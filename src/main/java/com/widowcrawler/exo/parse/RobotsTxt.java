@@ -0,0 +1,137 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.parse;
+
+import com.widowcrawler.exo.model.URLNormalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Reads the Sitemap directives out of a robots.txt. Sitemap lines stand apart from the user-agent groups,
+ * so they're collected from anywhere in the file:
+ *
+ *   Sitemap: https://www.example.com/sitemap_index.xml
+ *
+ * The field name is case insensitive, comments after # are dropped, relative locations are resolved
+ * against the robots.txt itself and locations listed more than once are returned once, in the order they
+ * first appear. Like the major crawlers, only the first 500 KiB of the file are read.
+ */
+public final class RobotsTxt {
+
+    private static final Logger logger = LoggerFactory.getLogger(RobotsTxt.class);
+
+    static final int MAX_BYTES = 500 * 1024;
+
+    private static final String SITEMAP_FIELD = "sitemap";
+
+    private RobotsTxt() { }
+
+    public static List<URL> sitemaps(InputStream inputStream, URL robotsURL) throws IOException {
+        final List<URL> sitemaps = new ArrayList<>();
+        final Set<String> seen = new HashSet<>();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new LimitedInputStream(inputStream, MAX_BYTES), StandardCharsets.UTF_8));
+
+        String line = reader.readLine();
+
+        if (line != null && line.startsWith("\uFEFF")) {
+            line = line.substring(1);
+        }
+
+        for (; line != null; line = reader.readLine()) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+
+            int colon = line.indexOf(':');
+            if (colon < 0 || !line.substring(0, colon).trim().equalsIgnoreCase(SITEMAP_FIELD)) {
+                continue;
+            }
+
+            String value = line.substring(colon + 1).trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+
+            try {
+                URL sitemapURL = new URL(robotsURL, value);
+
+                if (seen.add(URLNormalizer.normalize(sitemapURL))) {
+                    sitemaps.add(sitemapURL);
+                }
+
+            } catch (MalformedURLException ex) {
+                logger.warn("Ignoring malformed sitemap location in " + robotsURL + ": " + value);
+            }
+        }
+
+        return sitemaps;
+    }
+
+    // Ends the stream quietly at the limit, so a cut off last line is read like any other
+    private static class LimitedInputStream extends InputStream {
+        private final InputStream in;
+        private int remaining;
+
+        private LimitedInputStream(InputStream in, int limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.parse;
+
+import com.widowcrawler.exo.SitemapParseException;
+import com.widowcrawler.exo.model.SitemapURL;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Fetches and parses the sitemap at a location, streaming its URLs to the consumer. The Parser uses this
+ * to load the child sitemaps of a sitemap index.
+ */
+@FunctionalInterface
+public interface SitemapLoader {
+    void load(String url, Consumer<SitemapURL> consumer) throws SitemapParseException, IOException;
+}
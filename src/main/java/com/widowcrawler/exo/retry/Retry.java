@@ -15,42 +15,27 @@
  */
 package com.widowcrawler.exo.retry;
 
-import org.glassfish.jersey.internal.util.Producer;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 /**
  * @author Scott Mansfield
+ *
+ * @deprecated Use {@link RetryPolicy}, which only retries failures that can succeed on retry and backs
+ * off with jitter. These methods retry every failure.
  */
+@Deprecated
 public class Retry {
 
-    private static final Logger logger = LoggerFactory.getLogger(Retry.class);
-
-    private static final Integer DEFAULT_RETRY_COUNT = 3;
+    private static final int DEFAULT_RETRY_COUNT = 3;
 
-    public static <T> T retry(Producer<T> func) throws InterruptedException, RetryFailedException {
+    public static <T> T retry(Attempt<T> func) throws InterruptedException, RetryFailedException {
         return retry(DEFAULT_RETRY_COUNT, func);
     }
 
-    public static <T> T retry(int times, Producer<T> func) throws InterruptedException, RetryFailedException {
-        Throwable latestError = null;
-
-        for (int i = 1; i <= times; i++) {
-            try {
-                logger.debug("Trying time " + i);
-                return func.call();
-            } catch (Throwable t) {
-                logger.warn("Error while (re)trying ", t);
-                latestError = t;
-            }
-
-            if (i < times) {
-                int sleepTime = (i * i * 100);
-                logger.debug("Sleeping for " + sleepTime + "ms");
-                Thread.sleep(sleepTime);
-            }
-        }
-
-        throw new RetryFailedException("Retry could not complete the operation", latestError);
+    public static <T> T retry(int times, Attempt<T> func) throws InterruptedException, RetryFailedException {
+        return new RetryPolicy.Builder()
+                .withMaxAttempts(times)
+                .withClassifier(RetryClassifier.ALWAYS)
+                .withDeadline(Long.MAX_VALUE / 2)
+                .build()
+                .call(func);
     }
 }
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.retry;
+
+import com.widowcrawler.exo.HttpStatusException;
+import com.widowcrawler.exo.SitemapParseException;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Decides whether a failure is worth another attempt.
+ */
+@FunctionalInterface
+public interface RetryClassifier {
+
+    /**
+     * Retries every failure.
+     */
+    RetryClassifier ALWAYS = error -> true;
+
+    /**
+     * Retries failures that another attempt could fix, and nothing else:
+     *
+     *   - 408, 425, 429 and 5xx responses other than 501 and 505 are retried, other statuses aren't
+     *   - I/O errors are retried, including those surfacing from the XML reader mid-document
+     *   - malformed XML, invalid sitemaps and anything else are not
+     *
+     * The cause chain is searched, so wrapped errors are classified by what they wrap.
+     */
+    RetryClassifier TRANSIENT = error -> {
+        boolean io = false;
+        int depth = 0;
+
+        for (Throwable t = error; t != null && depth < 32; depth++) {
+            if (t instanceof HttpStatusException) {
+                return isTransient(((HttpStatusException) t).getStatus());
+            }
+
+            if (t instanceof SitemapParseException) {
+                return false;
+            }
+
+            if (t instanceof XMLStreamException) {
+                // The reader reports I/O failures as XMLStreamExceptions too, with the I/O error nested
+                Throwable nested = ((XMLStreamException) t).getNestedException();
+                t = nested != null ? nested : t.getCause();
+                io = false;
+
+                if (t == null) {
+                    return false;
+                }
+
+                continue;
+            }
+
+            if (t instanceof IOException) {
+                io = true;
+            }
+
+            t = t.getCause();
+        }
+
+        return io;
+    };
+
+    static boolean isTransient(int status) {
+        switch (status) {
+            case 408: // Request Timeout
+            case 425: // Too Early
+            case 429: // Too Many Requests
+                return true;
+            case 501: // Not Implemented
+            case 505: // HTTP Version Not Supported
+                return false;
+            default:
+                return status >= 500 && status < 600;
+        }
+    }
+
+    boolean isRetryable(Throwable error);
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.retry;
+
+/**
+ * @author Scott Mansfield
+ *
+ * Told about each retry before it is scheduled.
+ */
+@FunctionalInterface
+public interface RetryListener {
+
+    RetryListener NONE = (attempt, cause, delayMillis) -> { };
+
+    /**
+     * @param attempt the number of the attempt about to be made, starting at 2
+     * @param cause why the previous attempt failed
+     * @param delayMillis how long until it is made
+     */
+    void retrying(int attempt, Throwable cause, long delayMillis);
+}
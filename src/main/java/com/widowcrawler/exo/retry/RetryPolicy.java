@@ -0,0 +1,278 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.retry;
+
+import com.widowcrawler.exo.HttpStatusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * @author Scott Mansfield
+ *
+ * How failed operations are retried. Between attempts the policy waits for a random time between zero and
+ * an exponentially growing ceiling ("full jitter"), so that clients failing together don't retry together.
+ * If the failure carries a Retry-After from the server, that is waited instead.
+ *
+ * An operation is given up on when:
+ *
+ *   - its failure isn't retryable according to the classifier, e.g. malformed XML
+ *   - it has been attempted maxAttempts times
+ *   - the next attempt would start after the deadline, counted from the start of the first
+ *
+ * The deadline doesn't interrupt an attempt in progress; the client's timeouts are for that.
+ *
+ * Policies are immutable and can be shared.
+ */
+public class RetryPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+    /**
+     * 3 attempts, 100ms base delay, 5s cap, 30s deadline, transient failures only.
+     */
+    public static final RetryPolicy DEFAULT = new Builder().build();
+
+    /**
+     * A single attempt.
+     */
+    public static final RetryPolicy NEVER = new Builder().withMaxAttempts(1).build();
+
+    // Only fires the next attempt, which is itself asynchronous, so one thread is plenty
+    private static class Scheduler {
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "exo-retry-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long deadlineMillis;
+    private final RetryClassifier classifier;
+
+    public static class Builder {
+        private int maxAttempts = 3;
+        private long baseDelayMillis = 100L;
+        private long maxDelayMillis = 5_000L;
+        private long deadlineMillis = 30_000L;
+        private RetryClassifier classifier = RetryClassifier.TRANSIENT;
+
+        /**
+         * Total number of attempts, including the first.
+         */
+        public Builder withMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Ceiling of the delay before the second attempt. The ceiling doubles for each attempt after that.
+         */
+        public Builder withBaseDelay(long baseDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+            return this;
+        }
+
+        /**
+         * Highest the ceiling grows to. Doesn't limit a Retry-After sent by the server.
+         */
+        public Builder withMaxDelay(long maxDelayMillis) {
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * Time from the start of the first attempt after which no new attempt is started.
+         */
+        public Builder withDeadline(long deadlineMillis) {
+            this.deadlineMillis = deadlineMillis;
+            return this;
+        }
+
+        public Builder withClassifier(RetryClassifier classifier) {
+            this.classifier = classifier;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1");
+            }
+
+            if (baseDelayMillis < 0 || maxDelayMillis < 0 || deadlineMillis < 0) {
+                throw new IllegalArgumentException("Delays and deadline must not be negative");
+            }
+
+            return new RetryPolicy(this);
+        }
+    }
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.deadlineMillis = builder.deadlineMillis;
+        this.classifier = builder.classifier;
+    }
+
+    public <T> T call(Attempt<T> attempt) throws InterruptedException, RetryFailedException {
+        return call(attempt, RetryListener.NONE);
+    }
+
+    /**
+     * Makes attempts on the calling thread, sleeping between them, until one succeeds or the policy gives up.
+     *
+     * @throws RetryFailedException with the last failure as its cause when the policy gives up
+     */
+    public <T> T call(Attempt<T> attempt, RetryListener listener) throws InterruptedException, RetryFailedException {
+        final long start = System.nanoTime();
+
+        for (int attempts = 1; ; attempts++) {
+            try {
+                return attempt.call();
+
+            } catch (InterruptedException ex) {
+                throw ex;
+
+            } catch (Exception ex) {
+                long delay = nextDelay(attempts, ex, start);
+
+                if (delay < 0) {
+                    throw new RetryFailedException(giveUpMessage(attempts, ex), ex);
+                }
+
+                logger.warn("Attempt " + attempts + " failed, retrying in " + delay + "ms", ex);
+                listener.retrying(attempts + 1, ex, delay);
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Makes attempts without blocking: each attempt is started when the previous one's future fails and the
+     * delay has passed, on a shared scheduler thread. The returned future completes with the first success,
+     * or exceptionally with a {@link RetryFailedException} when the policy gives up.
+     */
+    public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> attempt, RetryListener listener) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        attemptAsync(attempt, listener, result, 1, System.nanoTime());
+        return result;
+    }
+
+    private <T> void attemptAsync(Supplier<CompletableFuture<T>> attempt, RetryListener listener,
+                                  CompletableFuture<T> result, int attempts, long start) {
+
+        CompletableFuture<T> future;
+
+        try {
+            future = attempt.get();
+        } catch (RuntimeException ex) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(ex);
+        }
+
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+
+            Throwable cause = unwrap(error);
+            long delay = nextDelay(attempts, cause, start);
+
+            if (delay < 0) {
+                result.completeExceptionally(new RetryFailedException(giveUpMessage(attempts, cause), cause));
+                return;
+            }
+
+            logger.warn("Attempt " + attempts + " failed, retrying in " + delay + "ms", cause);
+            listener.retrying(attempts + 1, cause, delay);
+            Scheduler.INSTANCE.schedule(() -> attemptAsync(attempt, listener, result, attempts + 1, start),
+                    delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * @return how long to wait before the next attempt, or -1 to give up
+     */
+    long nextDelay(int attempts, Throwable cause, long startNanos) {
+        if (attempts >= maxAttempts || !classifier.isRetryable(cause)) {
+            return -1L;
+        }
+
+        long delay = delayMillis(attempts, cause);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        return elapsed + delay > deadlineMillis ? -1L : delay;
+    }
+
+    /**
+     * Delay before the attempt after the given number of attempts: the server's Retry-After if there is
+     * one, otherwise uniformly random up to min(maxDelay, baseDelay * 2^(attempts - 1)).
+     */
+    long delayMillis(int attempts, Throwable cause) {
+        long retryAfter = retryAfterMillis(cause);
+
+        if (retryAfter >= 0) {
+            return retryAfter;
+        }
+
+        int doublings = Math.min(attempts - 1, 30);
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << doublings);
+
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static long retryAfterMillis(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof HttpStatusException) {
+                return ((HttpStatusException) t).getRetryAfterMillis();
+            }
+        }
+
+        return -1L;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+
+        return error;
+    }
+
+    private String giveUpMessage(int attempts, Throwable cause) {
+        if (!classifier.isRetryable(cause)) {
+            return "Failure is not retryable";
+        }
+
+        return attempts >= maxAttempts
+                ? "Gave up after " + attempts + " attempts"
+                : "Gave up after " + attempts + " attempts, the next would pass the deadline";
+    }
+}
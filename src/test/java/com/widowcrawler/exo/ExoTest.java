@@ -16,7 +16,41 @@
 
 package com.widowcrawler.exo;
 
+import com.sun.net.httpserver.HttpServer;
+import com.widowcrawler.exo.cache.FileSystemSitemapCache;
+import com.widowcrawler.exo.fetch.FetchScheduler;
+import com.widowcrawler.exo.metrics.HistogramMetrics;
+import com.widowcrawler.exo.model.Sitemap;
+import com.widowcrawler.exo.model.SitemapURL;
+import com.widowcrawler.exo.retry.RetryPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
 
 /**
  * @author Scott Mansfield
@@ -27,4 +61,714 @@ public class ExoTest {
     public void parse_foo() {
 
     }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final RetryPolicy FAST_RETRIES = new RetryPolicy.Builder()
+            .withBaseDelay(1L)
+            .withMaxDelay(10L)
+            .build();
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+    @Before
+    public void before() throws Exception {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @After
+    public void after() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private String serve(String path, int status, String contentType, byte[] body) {
+        server.createContext(path, exchange -> {
+            hits.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+
+        return urlOf(path);
+    }
+
+    // Answers 304 when If-None-Match carries the ETag of the current body
+    private String serveConditional(String path, AtomicInteger status, AtomicReference<byte[]> body) {
+        server.createContext(path, exchange -> {
+            hits.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+            byte[] current = body.get();
+            String eTag = "\"" + Arrays.hashCode(current) + "\"";
+
+            if (status.get() != 200) {
+                exchange.sendResponseHeaders(status.get(), -1);
+            } else if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.getResponseHeaders().add("ETag", eTag);
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.getResponseHeaders().add("ETag", eTag);
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, current.length);
+                exchange.getResponseBody().write(current);
+            }
+
+            exchange.close();
+        });
+
+        return urlOf(path);
+    }
+
+    private String urlOf(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    private int hitsOf(String path) {
+        AtomicInteger count = hits.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    @Test
+    public void parse_responseCharset_usedToDecodeBody() throws Exception {
+        // Arrange
+        byte[] body = (
+                "<?xml version=\"1.0\"?>" +
+                "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                " <url><loc>http://www.example.com/caf\u00e9</loc></url>" +
+                "</urlset>").getBytes("ISO-8859-1");
+
+        String url = serve("/sitemap.xml", 200, "text/xml; charset=ISO-8859-1", body);
+
+        // Act
+        Sitemap sitemap = Exo.parse(url);
+
+        // Assert
+        assertThat(sitemap.getUrls(), contains(
+                new SitemapURL.Builder().withLocation(new URL("http://www.example.com/caf\u00e9")).build()));
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_errorStatus_throwsIOException() throws Exception {
+        // Arrange
+        String url = serve("/missing.xml", 404, "text/html", "<html>Not Found</html>".getBytes("utf-8"));
+
+        // Act
+        Exo.parse(url);
+    }
+
+    @Test
+    public void fetch_sameHostRepeatedly_reusesConnection() throws Exception {
+        // Arrange
+        Set<Integer> remotePorts = Collections.synchronizedSet(new HashSet<>());
+        byte[] body = (
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                " <url><loc>http://www.example.com/</loc></url>" +
+                "</urlset>").getBytes("utf-8");
+
+        server.createContext("/sitemap.xml", exchange -> {
+            remotePorts.add(exchange.getRemoteAddress().getPort());
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+
+        String url = "http://localhost:" + server.getAddress().getPort() + "/sitemap.xml";
+
+        // Act
+        try (Exo exo = new Exo.Builder().withMaxConnectionsPerHost(1).build()) {
+            for (int i = 0; i < 5; i++) {
+                assertEquals(1, exo.fetch(url).getUrls().size());
+            }
+        }
+
+        // Assert
+        assertEquals(1, remotePorts.size());
+    }
+
+    @Test
+    public void parse_gzippedSitemapFile_decompressed() throws Exception {
+        // Arrange
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write((
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                    " <url><loc>http://www.example.com/</loc></url>" +
+                    "</urlset>").getBytes("utf-8"));
+        }
+
+        String url = serve("/sitemap.xml.gz", 200, "application/x-gzip", compressed.toByteArray());
+
+        // Act
+        Sitemap sitemap = Exo.parse(url);
+
+        // Assert
+        assertThat(sitemap.getUrls(), contains(
+                new SitemapURL.Builder().withLocation(new URL("http://www.example.com/")).build()));
+    }
+
+    @Test
+    public void parseAsync_sitemapIndex_completesWithURLsOfAllChildren() throws Exception {
+        // Arrange
+        String base = "http://localhost:" + server.getAddress().getPort();
+        StringBuilder index = new StringBuilder(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
+
+        for (int i = 0; i < 3; i++) {
+            serve("/child" + i + ".xml", 200, "text/xml", (
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                    " <url><loc>http://www.example.com/" + i + "</loc></url>" +
+                    "</urlset>").getBytes("utf-8"));
+            index.append("<sitemap><loc>").append(base).append("/child").append(i).append(".xml</loc></sitemap>");
+        }
+
+        index.append("</sitemapindex>");
+        String url = serve("/index.xml", 200, "text/xml", index.toString().getBytes("utf-8"));
+
+        // Act
+        Sitemap sitemap = Exo.parseAsync(url).get(10, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals(3, sitemap.getUrls().size());
+        assertThat(sitemap.getUrls(), hasItem(
+                new SitemapURL.Builder().withLocation(new URL("http://www.example.com/2")).build()));
+    }
+
+    @Test
+    public void parseAsync_errorStatus_completesExceptionally() throws Exception {
+        // Arrange
+        String url = serve("/missing.xml", 404, "text/html", "<html>Not Found</html>".getBytes("utf-8"));
+
+        // Act
+        try {
+            Exo.parseAsync(url).get(10, TimeUnit.SECONDS);
+            fail("Expected the future to fail");
+
+        } catch (ExecutionException ex) {
+            // Assert
+            assertThat(ex.getCause(), instanceOf(IOException.class));
+        }
+    }
+
+    @Test
+    public void fetchIfModified_unchangedSitemap_notParsedAgain() throws Exception {
+        // Arrange
+        AtomicInteger fullResponses = new AtomicInteger();
+        byte[] body = (
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                " <url><loc>http://www.example.com/</loc></url>" +
+                "</urlset>").getBytes("utf-8");
+
+        server.createContext("/sitemap.xml", exchange -> {
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                fullResponses.incrementAndGet();
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+
+            exchange.close();
+        });
+
+        String url = "http://localhost:" + server.getAddress().getPort() + "/sitemap.xml";
+        List<SitemapURL> first = new ArrayList<>();
+        List<SitemapURL> second = new ArrayList<>();
+
+        // Act
+        boolean firstModified;
+        boolean secondModified;
+
+        try (Exo exo = new Exo.Builder()
+                .withCache(new FileSystemSitemapCache(folder.getRoot().toPath(), 100))
+                .build()) {
+            firstModified = exo.fetchIfModified(url, first::add);
+            secondModified = exo.fetchIfModified(url, second::add);
+        }
+
+        // Assert
+        assertTrue(firstModified);
+        assertFalse(secondModified);
+        assertEquals(1, first.size());
+        assertEquals(0, second.size());
+        assertEquals(1, fullResponses.get());
+    }
+
+    @Test
+    public void fetchIfModified_unchangedIndexWithChangedChild_childReadAgain() throws Exception {
+        // Arrange
+        AtomicReference<byte[]> child = new AtomicReference<>(urlset("http://www.example.com/a"));
+        AtomicReference<byte[]> index = new AtomicReference<>(index(urlOf("/child.xml")));
+        String url = serveConditional("/index.xml", new AtomicInteger(200), index);
+        serveConditional("/child.xml", new AtomicInteger(200), child);
+
+        List<SitemapURL> first = new ArrayList<>();
+        List<SitemapURL> second = new ArrayList<>();
+
+        // Act
+        try (Exo exo = new Exo.Builder()
+                .withCache(new FileSystemSitemapCache(folder.getRoot().toPath(), 100))
+                .build()) {
+            exo.fetchIfModified(url, first::add);
+            child.set(urlset("http://www.example.com/b"));
+            exo.fetchIfModified(url, second::add);
+        }
+
+        // Assert
+        assertThat(first, contains(new SitemapURL.Builder().withLocation(new URL("http://www.example.com/a")).build()));
+        assertThat(second, contains(new SitemapURL.Builder().withLocation(new URL("http://www.example.com/b")).build()));
+        assertEquals(2, hitsOf("/index.xml"));
+    }
+
+    @Test
+    public void fetchIfModified_failedExpansion_childValidatorsNotKept() throws Exception {
+        // Arrange
+        AtomicInteger brokenStatus = new AtomicInteger(404);
+        String url = serveConditional("/index.xml", new AtomicInteger(200),
+                new AtomicReference<>(index(urlOf("/good.xml"), urlOf("/broken.xml"))));
+        serveConditional("/good.xml", new AtomicInteger(200), new AtomicReference<>(urlset("http://www.example.com/a")));
+        serveConditional("/broken.xml", brokenStatus, new AtomicReference<>(urlset("http://www.example.com/b")));
+
+        Set<SitemapURL> second = ConcurrentHashMap.newKeySet();
+
+        // Act
+        try (Exo exo = new Exo.Builder()
+                .withCache(new FileSystemSitemapCache(folder.getRoot().toPath(), 100))
+                .withRetryPolicy(FAST_RETRIES)
+                .build()) {
+
+            try {
+                exo.fetchIfModified(url, sitemapURL -> { });
+                fail("Expected the broken child to fail the expansion");
+            } catch (SitemapParseException ex) {
+                // expected
+            }
+
+            brokenStatus.set(200);
+            exo.fetchIfModified(url, second::add);
+        }
+
+        // Assert
+        assertThat(second, containsInAnyOrder(
+                new SitemapURL.Builder().withLocation(new URL("http://www.example.com/a")).build(),
+                new SitemapURL.Builder().withLocation(new URL("http://www.example.com/b")).build()));
+    }
+
+    @Test
+    public void fetch_withMetrics_recordsEveryDocumentOfIndex() throws Exception {
+        // Arrange
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write((
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                    " <url><loc>http://www.example.com/a</loc></url>" +
+                    " <url><loc>http://www.example.com/b</loc></url>" +
+                    "</urlset>").getBytes("utf-8"));
+        }
+
+        String gzipped = serve("/child0.xml.gz", 200, "application/x-gzip", compressed.toByteArray());
+        String plain = serve("/child1.xml", 200, "text/xml", (
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                " <url><loc>http://www.example.com/c</loc></url>" +
+                "</urlset>").getBytes("utf-8"));
+
+        String url = serve("/index.xml", 200, "text/xml", (
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                " <sitemap><loc>" + gzipped + "</loc></sitemap>" +
+                " <sitemap><loc>" + plain + "</loc></sitemap>" +
+                "</sitemapindex>").getBytes("utf-8"));
+
+        HistogramMetrics metrics = new HistogramMetrics();
+
+        // Act
+        try (Exo exo = new Exo.Builder().withMetrics(metrics).build()) {
+            exo.fetch(url);
+        }
+
+        // Assert
+        assertEquals(3, metrics.getFetchLatencyNanos().getCount());
+        assertEquals(Long.valueOf(3), metrics.getStatuses().get(200));
+        assertThat(metrics.getFetchLatencyNanosByHost().keySet(), contains("localhost"));
+        assertEquals(3, metrics.getParseNanos().getCount());
+        assertEquals(1, metrics.getDecompressNanos().getCount());
+        assertEquals(3, metrics.getUrlsPerDocument().getSum());
+        assertEquals(2, metrics.getUrlsPerDocument().getMax());
+        assertEquals(1, metrics.getFanOut().getCount());
+        assertEquals(2, metrics.getFanOut().getMax());
+        assertEquals(1, metrics.getDepth().getMax());
+        assertEquals(3, metrics.getBytes().getCount());
+        assertEquals(3, metrics.getReadNanos().getCount());
+        assertEquals(0, metrics.getRetries());
+        assertTrue(metrics.getFailuresByType().isEmpty());
+        assertThat(metrics.toString(), allOf(containsString("Statuses: {200=3}"), containsString("Retries: 0")));
+    }
+
+    @Test
+    public void fetch_withMetricsUnavailableChild_recordsRetriesAndFailures() throws Exception {
+        // Arrange
+        String unavailable = serve("/unavailable.xml", 503, "text/html", "<html>Unavailable</html>".getBytes("utf-8"));
+        String url = serve("/index.xml", 200, "text/xml", index(unavailable));
+
+        HistogramMetrics metrics = new HistogramMetrics();
+
+        // Act
+        try (Exo exo = new Exo.Builder().withMetrics(metrics).withRetryPolicy(FAST_RETRIES).build()) {
+            exo.fetch(url);
+            fail("Expected the unavailable child to fail the index");
+
+        } catch (SitemapParseException ex) {
+            // expected
+        }
+
+        // Assert
+        assertEquals(2, metrics.getRetries());
+        assertEquals(Long.valueOf(3), metrics.getStatuses().get(503));
+        assertEquals(Long.valueOf(3), metrics.getFailuresByType().get(HttpStatusException.class.getName()));
+        assertEquals(Long.valueOf(1), metrics.getFailuresByType().get(SitemapParseException.class.getName()));
+    }
+
+    @Test
+    public void fetch_missingChild_notRetried() throws Exception {
+        // Arrange
+        String missing = serve("/missing.xml", 404, "text/html", "<html>Not Found</html>".getBytes("utf-8"));
+        String url = serve("/index.xml", 200, "text/xml", index(missing));
+
+        HistogramMetrics metrics = new HistogramMetrics();
+
+        // Act
+        try (Exo exo = new Exo.Builder().withMetrics(metrics).withRetryPolicy(FAST_RETRIES).build()) {
+            exo.fetch(url);
+            fail("Expected the missing child to fail the index");
+
+        } catch (SitemapParseException ex) {
+            // expected
+        }
+
+        // Assert
+        assertEquals(0, metrics.getRetries());
+        assertEquals(Long.valueOf(1), metrics.getStatuses().get(404));
+    }
+
+    @Test
+    public void fetchAsync_childRecoversAfterRetryAfter_succeeds() throws Exception {
+        // Arrange
+        AtomicInteger requests = new AtomicInteger();
+        byte[] body = urlset("http://www.example.com/recovered");
+
+        server.createContext("/flaky.xml", exchange -> {
+            if (requests.incrementAndGet() == 1) {
+                exchange.getResponseHeaders().add("Retry-After", "0");
+                exchange.sendResponseHeaders(429, -1);
+            } else {
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+
+        String flaky = "http://localhost:" + server.getAddress().getPort() + "/flaky.xml";
+        String url = serve("/index.xml", 200, "text/xml", index(flaky));
+
+        // Act
+        Sitemap sitemap;
+        try (Exo exo = new Exo.Builder().withRetryPolicy(FAST_RETRIES).build()) {
+            sitemap = exo.fetchAsync(url).get(10, TimeUnit.SECONDS);
+        }
+
+        // Assert
+        assertEquals(2, requests.get());
+        assertThat(sitemap.getUrls(), contains(
+                new SitemapURL.Builder().withLocation(new URL("http://www.example.com/recovered")).build()));
+    }
+
+    @Test
+    public void retryAfterMillis_secondsAndDates_parsed() {
+        assertEquals(120000L, Exo.retryAfterMillis(" 120 "));
+        assertEquals(0L, Exo.retryAfterMillis("Wed, 21 Oct 2015 07:28:00 GMT"));
+        assertEquals(-1L, Exo.retryAfterMillis("soon"));
+        assertEquals(-1L, Exo.retryAfterMillis(null));
+    }
+
+    @Test
+    public void fetch_withFetchScheduler_capsRequestsInFlightPerHost() throws Exception {
+        // Arrange
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<String> children = new ArrayList<>();
+
+        for (int i = 0; i < 6; i++) {
+            String path = "/child" + i + ".xml";
+            byte[] body = urlset("http://www.example.com/" + i);
+
+            server.createContext(path, exchange -> {
+                peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(50L);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            });
+
+            children.add("http://localhost:" + server.getAddress().getPort() + path);
+        }
+
+        String url = serve("/index.xml", 200, "text/xml", index(children.toArray(new String[0])));
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+
+        FetchScheduler scheduler = new FetchScheduler.Builder().withMaxInFlightPerHost(2).build();
+
+        // Act
+        Sitemap sitemap;
+        Sitemap async;
+        try (Exo exo = new Exo.Builder().withExecutor(executor).withFetchScheduler(scheduler).build()) {
+            sitemap = exo.fetch(url);
+            async = exo.fetchAsync(url).get(10, TimeUnit.SECONDS);
+
+        } finally {
+            executor.shutdown();
+        }
+
+        // Assert
+        assertEquals(6, sitemap.getUrls().size());
+        assertEquals(6, async.getUrls().size());
+        assertThat(peak.get(), lessThanOrEqualTo(2));
+        assertEquals(0, scheduler.getInFlight());
+    }
+
+    @Test
+    public void fetch_tooManyRequests_pausesHost() throws Exception {
+        // Arrange
+        List<Long> requestedAt = Collections.synchronizedList(new ArrayList<>());
+        byte[] body = urlset("http://www.example.com/eventually");
+
+        server.createContext("/busy.xml", exchange -> {
+            requestedAt.add(System.nanoTime());
+            if (requestedAt.size() == 1) {
+                exchange.sendResponseHeaders(429, -1);
+            } else {
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+
+        String busy = "http://localhost:" + server.getAddress().getPort() + "/busy.xml";
+        String url = serve("/index.xml", 200, "text/xml", index(busy));
+
+        FetchScheduler scheduler = new FetchScheduler.Builder().withBackoff(300L, 1000L).build();
+
+        // Act
+        Sitemap sitemap;
+        try (Exo exo = new Exo.Builder().withFetchScheduler(scheduler).withRetryPolicy(FAST_RETRIES).build()) {
+            sitemap = exo.fetch(url);
+        }
+
+        // Assert
+        assertEquals(1, sitemap.getUrls().size());
+        assertEquals(2, requestedAt.size());
+        assertThat(TimeUnit.NANOSECONDS.toMillis(requestedAt.get(1) - requestedAt.get(0)), greaterThanOrEqualTo(290L));
+    }
+
+    @Test
+    public void fetch_indexListsItself_fetchedOnce() throws Exception {
+        // Arrange
+        String child = serve("/child.xml", 200, "text/xml", urlset("http://www.example.com/child"));
+        String url = serve("/index.xml", 200, "text/xml", index(urlOf("/index.xml"), child));
+
+        // Act
+        Sitemap sitemap;
+        Sitemap async;
+        try (Exo exo = new Exo.Builder().build()) {
+            sitemap = exo.fetch(url);
+            async = exo.fetchAsync(url).get(10, TimeUnit.SECONDS);
+        }
+
+        // Assert
+        assertEquals(1, sitemap.getUrls().size());
+        assertEquals(1, async.getUrls().size());
+        assertEquals(2, hitsOf("/index.xml"));
+        assertEquals(2, hitsOf("/child.xml"));
+    }
+
+    @Test
+    public void fetch_indexesListEachOtherAndDuplicates_eachFetchedOnce() throws Exception {
+        // Arrange
+        String leaf = serve("/leaf.xml", 200, "text/xml", urlset("http://www.example.com/leaf"));
+        String other = urlOf("/other.xml");
+        String url = serve("/index.xml", 200, "text/xml",
+                index(other, leaf, leaf.replace("localhost", "LOCALHOST") + "#fragment"));
+        serve("/other.xml", 200, "text/xml", index(url, leaf));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        // Act
+        Sitemap sitemap;
+        try (Exo exo = new Exo.Builder().withExecutor(executor).build()) {
+            sitemap = exo.fetch(url);
+        } finally {
+            executor.shutdown();
+        }
+
+        // Assert
+        assertEquals(1, sitemap.getUrls().size());
+        assertEquals(1, hitsOf("/index.xml"));
+        assertEquals(1, hitsOf("/other.xml"));
+        assertEquals(1, hitsOf("/leaf.xml"));
+    }
+
+    @Test
+    public void fetch_nestedPastMaxDepth_deeperIndexesSkipped() throws Exception {
+        // Arrange
+        serve("/leaf.xml", 200, "text/xml", urlset("http://www.example.com/leaf"));
+        serve("/level2.xml", 200, "text/xml", index(urlOf("/leaf.xml")));
+        serve("/level1.xml", 200, "text/xml", index(urlOf("/level2.xml")));
+        String url = serve("/index.xml", 200, "text/xml", index(urlOf("/level1.xml")));
+
+        // Act
+        Sitemap sitemap;
+        Sitemap async;
+        try (Exo exo = new Exo.Builder().withMaxDepth(2).build()) {
+            sitemap = exo.fetch(url);
+            async = exo.fetchAsync(url).get(10, TimeUnit.SECONDS);
+        }
+
+        // Assert
+        assertThat(sitemap.getUrls(), is(empty()));
+        assertThat(async.getUrls(), is(empty()));
+        assertEquals(2, hitsOf("/level2.xml"));
+        assertEquals(0, hitsOf("/leaf.xml"));
+    }
+
+    @Test
+    public void fetch_moreChildrenThanMax_restSkipped() throws Exception {
+        // Arrange
+        String[] children = new String[5];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = serve("/child" + i + ".xml", 200, "text/xml", urlset("http://www.example.com/" + i));
+        }
+        String url = serve("/index.xml", 200, "text/xml", index(children));
+
+        // Act
+        Sitemap sitemap;
+        try (Exo exo = new Exo.Builder().withMaxChildSitemaps(3).build()) {
+            sitemap = exo.fetch(url);
+        }
+
+        // Assert
+        assertEquals(3, sitemap.getUrls().size());
+        assertEquals(0, hitsOf("/child3.xml") + hitsOf("/child4.xml"));
+    }
+
+    @Test
+    public void discover_robotsListsSitemaps_expandsAllOnce() throws Exception {
+        // Arrange
+        String news = serve("/news.xml", 200, "text/xml",
+                urlset("http://www.example.com/a", "http://www.example.com/b"));
+        String pages = serve("/pages.xml", 200, "text/xml",
+                urlset("http://www.example.com/b", "http://www.example.com/c"));
+        String index = serve("/index.xml", 200, "text/xml", index(news, pages));
+
+        serve("/robots.txt", 200, "text/plain", (
+                "User-agent: *\n" +
+                "Disallow: /private\n" +
+                "Sitemap: " + index + "\n" +
+                "Sitemap: " + news + "\n" +
+                "Sitemap: /pages.xml\n").getBytes("utf-8"));
+
+        String site = "http://localhost:" + server.getAddress().getPort();
+
+        // Act
+        Sitemap sitemap;
+        List<SitemapURL> streamed = new ArrayList<>();
+        try (Exo exo = new Exo.Builder().build()) {
+            sitemap = exo.discover(site);
+            exo.discover(site, streamed::add);
+        }
+
+        // Assert
+        assertThat(sitemap.getUrls(), containsInAnyOrder(
+                new SitemapURL.Builder().withLocation(new URL("http://www.example.com/a")).build(),
+                new SitemapURL.Builder().withLocation(new URL("http://www.example.com/b")).build(),
+                new SitemapURL.Builder().withLocation(new URL("http://www.example.com/c")).build()));
+        assertEquals(4, streamed.size());
+        assertEquals(2, hitsOf("/robots.txt"));
+        assertEquals(2, hitsOf("/index.xml"));
+        assertEquals(2, hitsOf("/news.xml"));
+        assertEquals(2, hitsOf("/pages.xml"));
+    }
+
+    @Test
+    public void discover_noRobots_empty() throws Exception {
+        // Act
+        Sitemap sitemap;
+        try (Exo exo = new Exo.Builder().build()) {
+            sitemap = exo.discover("http://localhost:" + server.getAddress().getPort());
+        }
+
+        // Assert
+        assertThat(sitemap.getUrls(), is(empty()));
+    }
+
+    @Test
+    public void discover_robotsUnavailable_throws() throws Exception {
+        // Arrange
+        serve("/robots.txt", 503, "text/plain", "down".getBytes("utf-8"));
+
+        // Act
+        try (Exo exo = new Exo.Builder().build()) {
+            exo.discover("http://localhost:" + server.getAddress().getPort());
+            fail("Expected the unavailable robots.txt to fail discovery");
+
+        } catch (HttpStatusException ex) {
+            // Assert
+            assertEquals(503, ex.getStatus());
+        }
+    }
+
+    private static byte[] index(String... children) throws IOException {
+        StringBuilder xml = new StringBuilder(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
+
+        for (String child : children) {
+            xml.append(" <sitemap><loc>").append(child).append("</loc></sitemap>");
+        }
+
+        return xml.append("</sitemapindex>").toString().getBytes("utf-8");
+    }
+
+    private static byte[] urlset(String... locations) throws IOException {
+        StringBuilder xml = new StringBuilder(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
+
+        for (String location : locations) {
+            xml.append(" <url><loc>").append(location).append("</loc></url>");
+        }
+
+        return xml.append("</urlset>").toString().getBytes("utf-8");
+    }
 }
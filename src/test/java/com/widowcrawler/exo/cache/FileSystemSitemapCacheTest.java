@@ -0,0 +1,80 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class FileSystemSitemapCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void get_afterReopening_returnsStoredValidators() throws Exception {
+        // Arrange
+        Path directory = folder.getRoot().toPath();
+        new FileSystemSitemapCache(directory, 10).put("http://www.example.com/sitemap.xml",
+                new Validators("\"abc\"", "Wed, 21 Oct 2015 07:28:00 GMT"));
+
+        // Act
+        Validators validators = new FileSystemSitemapCache(directory, 10).get("http://www.example.com/sitemap.xml");
+
+        // Assert
+        assertEquals("\"abc\"", validators.getETag());
+        assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", validators.getLastModified());
+    }
+
+    @Test
+    public void get_unknownURL_returnsNull() throws Exception {
+        // Arrange
+        FileSystemSitemapCache cache = new FileSystemSitemapCache(folder.getRoot().toPath(), 10);
+
+        // Act
+        Validators validators = cache.get("http://www.example.com/sitemap.xml");
+
+        // Assert
+        assertNull(validators);
+    }
+
+    @Test
+    public void put_pastMaxEntries_evictsLeastRecentlyUsed() throws Exception {
+        // Arrange
+        FileSystemSitemapCache cache = new FileSystemSitemapCache(folder.getRoot().toPath(), 2);
+        cache.put("http://www.example.com/a.xml", new Validators("a", null));
+        cache.put("http://www.example.com/b.xml", new Validators("b", null));
+        cache.get("http://www.example.com/a.xml");
+
+        // Act
+        cache.put("http://www.example.com/c.xml", new Validators("c", null));
+
+        // Assert
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("http://www.example.com/a.xml"));
+        assertNull(cache.get("http://www.example.com/b.xml"));
+        assertNotNull(cache.get("http://www.example.com/c.xml"));
+        assertEquals(2, folder.getRoot().list().length);
+    }
+}
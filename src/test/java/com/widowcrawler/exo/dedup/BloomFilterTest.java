@@ -0,0 +1,166 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.dedup;
+
+import com.widowcrawler.exo.model.SitemapURL;
+import com.widowcrawler.exo.parse.Parser;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class BloomFilterTest {
+
+    private static String location(int i) {
+        return "http://www.example.com/products/" + i + "?ref=sitemap";
+    }
+
+    @Test
+    public void new_expectedAndFpp_sizedByFormula() {
+        // Act
+        BloomFilter filter = new BloomFilter(1_000_000L, 0.01);
+
+        // Assert
+        assertThat(filter.getBitSize(), both(greaterThanOrEqualTo(9_585_058L)).and(lessThan(9_585_058L + 64)));
+        assertEquals(7, filter.getHashFunctions());
+        assertEquals(0.0, filter.getSaturation(), 0.0);
+    }
+
+    @Test
+    public void put_atExpectedInsertions_noFalseNegativesAndFppNearTarget() {
+        // Arrange
+        int n = 200_000;
+        BloomFilter filter = new BloomFilter(n, 0.01);
+
+        // Act
+        int reportedNew = 0;
+        for (int i = 0; i < n; i++) {
+            if (filter.put(location(i))) {
+                reportedNew++;
+            }
+        }
+
+        int falsePositives = 0;
+        for (int i = n; i < 2 * n; i++) {
+            if (filter.mightContain(location(i))) {
+                falsePositives++;
+            }
+        }
+
+        // Assert
+        for (int i = 0; i < n; i++) {
+            assertTrue(filter.mightContain(location(i)));
+        }
+
+        assertThat(reportedNew, greaterThan(n - n / 50));
+        assertThat((double) falsePositives / n, lessThan(0.02));
+        assertThat(filter.getSaturation(), closeTo(0.5, 0.05));
+        assertThat(filter.getEstimatedFpp(), closeTo(0.01, 0.005));
+        assertThat((double) filter.getEstimatedDistinct(), closeTo(n, n * 0.05));
+        assertEquals(n, filter.getInsertions());
+    }
+
+    @Test
+    public void put_pastExpectedInsertions_saturationReported() {
+        // Arrange
+        BloomFilter filter = new BloomFilter(10_000L, 0.01);
+
+        // Act
+        for (int i = 0; i < 50_000; i++) {
+            filter.put(location(i));
+        }
+
+        // Assert
+        assertThat(filter.getSaturation(), greaterThan(0.9));
+        assertThat(filter.getEstimatedFpp(), greaterThan(0.5));
+    }
+
+    @Test
+    public void dedup_repeatedLocations_passedOnOnce() throws Exception {
+        // Arrange
+        BloomFilter filter = new BloomFilter(1_000L, 0.001);
+        List<SitemapURL> passed = new ArrayList<>();
+        Consumer<SitemapURL> dedup = filter.dedup(passed::add);
+
+        SitemapURL first = new SitemapURL.Builder().withLocation(new URL("http://www.example.com/a")).build();
+        SitemapURL sameLocation = new SitemapURL.Builder()
+                .withLocation(new URL("HTTP://WWW.EXAMPLE.COM:80/a#top"))
+                .withPriority(0.5)
+                .build();
+        SitemapURL other = new SitemapURL.Builder().withLocation(new URL("http://www.example.com/b")).build();
+
+        // Act
+        dedup.accept(first);
+        dedup.accept(sameLocation);
+        dedup.accept(other);
+        dedup.accept(first);
+
+        // Assert
+        assertThat(passed, contains(first, other));
+        assertFalse(Parser.isConcurrent(dedup));
+        assertTrue(Parser.isConcurrent(filter.dedup(Parser.concurrent(passed::add))));
+    }
+
+    @Test
+    public void put_fromManyThreads_everyKeyPresent() throws Exception {
+        // Arrange
+        int threads = 8;
+        int perThread = 20_000;
+        BloomFilter filter = new BloomFilter(threads * perThread, 0.001);
+        Set<String> passed = ConcurrentHashMap.newKeySet();
+        Consumer<SitemapURL> dedup = filter.dedup(Parser.concurrent(sitemapURL -> passed.add(sitemapURL.getNormalizedLocation())));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // Act
+        for (int t = 0; t < threads; t++) {
+            final int first = t * perThread;
+
+            futures.add(executor.submit(() -> {
+                for (int i = first; i < first + perThread; i++) {
+                    dedup.accept(new SitemapURL.Builder().withLocation(new URL(location(i))).build());
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Assert
+        for (int i = 0; i < threads * perThread; i++) {
+            assertTrue(filter.mightContain(location(i)));
+        }
+
+        assertThat(passed.size(), greaterThan(threads * perThread - threads * perThread / 100));
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.diff;
+
+import com.widowcrawler.exo.model.ChangeFreq;
+import com.widowcrawler.exo.model.SitemapURL;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class SitemapDiffTest {
+
+    private static class RecordingListener implements SitemapDiffListener {
+        final List<SitemapURL> added = new ArrayList<>();
+        final List<SitemapURL> modified = new ArrayList<>();
+        final List<Long> removed = new ArrayList<>();
+
+        @Override
+        public void added(SitemapURL sitemapURL) {
+            added.add(sitemapURL);
+        }
+
+        @Override
+        public void modified(SitemapURL sitemapURL) {
+            modified.add(sitemapURL);
+        }
+
+        @Override
+        public void removed(long locationHash) {
+            removed.add(locationHash);
+        }
+    }
+
+    private static SitemapURL url(String location, DateTime lastModified) throws Exception {
+        return new SitemapURL.Builder()
+                .withLocation(new URL(location))
+                .withLastModified(lastModified)
+                .withChangeFrequency(ChangeFreq.DAILY)
+                .build();
+    }
+
+    @Test
+    public void diff_changedStream_reportsAddedModifiedAndRemoved() throws Exception {
+        // Arrange
+        DateTime before = new DateTime(2015, 1, 1, 0, 0);
+        DateTime after = new DateTime(2015, 2, 1, 0, 0);
+
+        SitemapSnapshot previous = new SitemapSnapshot();
+        previous.add(url("http://www.example.com/a", before));
+        previous.add(url("http://www.example.com/b", before));
+        previous.add(url("http://www.example.com/c", before));
+
+        RecordingListener listener = new RecordingListener();
+        SitemapDiff diff = new SitemapDiff(previous, listener);
+
+        // Act
+        Arrays.asList(
+                url("http://www.example.com/b", after),
+                url("http://www.example.com/c", before),
+                url("http://www.example.com/d", after),
+                url("http://www.example.com/d", after)
+        ).forEach(diff);
+
+        SitemapSnapshot next = diff.finish();
+
+        // Assert
+        assertThat(listener.added, contains(url("http://www.example.com/d", after)));
+        assertThat(listener.modified, contains(url("http://www.example.com/b", after)));
+        assertThat(listener.removed, contains(SitemapSnapshot.locationHash("http://www.example.com/a")));
+        assertEquals(3, next.size());
+    }
+
+    @Test
+    public void diff_againstReadBackSnapshot_reportsNothing() throws Exception {
+        // Arrange
+        List<SitemapURL> urls = new ArrayList<>();
+        SitemapSnapshot snapshot = new SitemapSnapshot();
+
+        for (int i = 0; i < 100_000; i++) {
+            SitemapURL sitemapURL = url("http://www.example.com/page-" + i, new DateTime(2015, 1, 1, 0, 0).plusMinutes(i));
+            urls.add(sitemapURL);
+            snapshot.add(sitemapURL);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.writeTo(out);
+
+        RecordingListener listener = new RecordingListener();
+
+        // Act
+        SitemapDiff diff = new SitemapDiff(SitemapSnapshot.readFrom(new ByteArrayInputStream(out.toByteArray())), listener);
+        urls.forEach(diff);
+        diff.finish();
+
+        // Assert
+        assertEquals(100_000, snapshot.size());
+        assertThat(listener.added, empty());
+        assertThat(listener.modified, empty());
+        assertThat(listener.removed, empty());
+    }
+
+    @Test
+    public void diff_urlWithoutLocation_isSkipped() throws Exception {
+        // Arrange
+        DateTime before = new DateTime(2015, 1, 1, 0, 0);
+        SitemapURL noLocation = new SitemapURL.Builder().withLastModified(before).build();
+
+        SitemapSnapshot previous = new SitemapSnapshot();
+        previous.add(url("http://www.example.com/a", before));
+
+        RecordingListener listener = new RecordingListener();
+        SitemapDiff diff = new SitemapDiff(previous, listener);
+
+        // Act
+        diff.accept(noLocation);
+        diff.accept(url("http://www.example.com/a", before));
+        SitemapSnapshot next = diff.finish();
+
+        // Assert
+        assertFalse(previous.add(noLocation));
+        assertFalse(next.contains(noLocation));
+        assertEquals(1, next.size());
+        assertThat(listener.added, empty());
+        assertThat(listener.modified, empty());
+        assertThat(listener.removed, empty());
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.fetch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class FetchSchedulerTest {
+
+    @Test
+    public void acquire_maxInFlightPerHost_waitsForRelease() throws Exception {
+        // Arrange
+        FetchScheduler scheduler = new FetchScheduler.Builder().withMaxInFlightPerHost(2).build();
+
+        // Act
+        CompletableFuture<FetchScheduler.Permit> first = scheduler.acquire("a.example.com");
+        CompletableFuture<FetchScheduler.Permit> second = scheduler.acquire("a.example.com");
+        CompletableFuture<FetchScheduler.Permit> third = scheduler.acquire("a.example.com");
+        CompletableFuture<FetchScheduler.Permit> other = scheduler.acquire("b.example.com");
+
+        // Assert
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+        assertTrue(other.isDone());
+
+        first.get().close();
+        first.get().close();
+
+        assertTrue(third.isDone());
+        assertEquals(3, scheduler.getInFlight());
+    }
+
+    @Test
+    public void acquire_requestsPerSecond_spacesRequests() throws Exception {
+        // Arrange
+        FetchScheduler scheduler = new FetchScheduler.Builder().withRequestsPerSecond(20.0).build();
+        List<CompletableFuture<FetchScheduler.Permit>> permits = new ArrayList<>();
+
+        // Act
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            permits.add(scheduler.acquire("a.example.com"));
+        }
+        for (CompletableFuture<FetchScheduler.Permit> permit : permits) {
+            permit.get(5, TimeUnit.SECONDS).close();
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Assert
+        // the first is free, the other four come 50ms apart
+        assertThat(elapsedMillis, greaterThanOrEqualTo(190L));
+        assertEquals(0, scheduler.getInFlight());
+    }
+
+    @Test
+    public void acquire_maxInFlight_servesHostsRoundRobin() throws Exception {
+        // Arrange
+        FetchScheduler scheduler = new FetchScheduler.Builder().withMaxInFlight(1).build();
+        FetchScheduler.Permit held = scheduler.acquire("busy.example.com").get();
+
+        List<CompletableFuture<FetchScheduler.Permit>> permits = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            permits.add(scheduler.acquire("busy.example.com"));
+        }
+        permits.add(scheduler.acquire("quiet.example.com"));
+
+        // Act
+        List<String> order = new ArrayList<>();
+        held.close();
+
+        while (!permits.isEmpty()) {
+            CompletableFuture<FetchScheduler.Permit> granted = permits.stream()
+                    .filter(CompletableFuture::isDone)
+                    .findFirst().get();
+
+            assertEquals(1, permits.stream().filter(CompletableFuture::isDone).count());
+            permits.remove(granted);
+            order.add(granted.get().getHost());
+            granted.get().close();
+        }
+
+        // Assert
+        assertThat(order, contains("busy.example.com", "quiet.example.com", "busy.example.com", "busy.example.com"));
+    }
+
+    @Test
+    public void backOff_pausesHostOnly() throws Exception {
+        // Arrange
+        FetchScheduler scheduler = new FetchScheduler.Builder().build();
+        scheduler.backOff("a.example.com", 300L);
+
+        // Act
+        long start = System.nanoTime();
+        CompletableFuture<FetchScheduler.Permit> paused = scheduler.acquire("a.example.com");
+        CompletableFuture<FetchScheduler.Permit> other = scheduler.acquire("b.example.com");
+
+        // Assert
+        assertTrue(other.isDone());
+        assertFalse(paused.isDone());
+
+        paused.get(5, TimeUnit.SECONDS);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(290L));
+    }
+
+    @Test
+    public void acquire_cancelledWaiter_skipped() throws Exception {
+        // Arrange
+        FetchScheduler scheduler = new FetchScheduler.Builder().withMaxInFlightPerHost(1).build();
+        FetchScheduler.Permit held = scheduler.acquire("a.example.com").get();
+        CompletableFuture<FetchScheduler.Permit> cancelled = scheduler.acquire("a.example.com");
+        CompletableFuture<FetchScheduler.Permit> waiting = scheduler.acquire("a.example.com");
+
+        // Act
+        cancelled.cancel(false);
+        held.close();
+
+        // Assert
+        assertTrue(waiting.isDone());
+        assertEquals(1, scheduler.getInFlight());
+    }
+
+    @Test
+    public void acquire_manyHostsOnce_idleHostsForgotten() throws Exception {
+        // Arrange
+        FetchScheduler scheduler = new FetchScheduler.Builder().withMaxInFlightPerHost(1).build();
+
+        // Act
+        for (int i = 0; i < 1000; i++) {
+            scheduler.acquire("host" + i + ".example.com").get().close();
+        }
+
+        // Assert
+        assertThat(scheduler.getHosts(), lessThanOrEqualTo(64));
+    }
+
+    @Test
+    public void acquire_manyHostsOnce_pausedHostKept() throws Exception {
+        // Arrange
+        FetchScheduler scheduler = new FetchScheduler.Builder().build();
+        scheduler.backOff("slow.example.com", 10_000L);
+
+        // Act
+        for (int i = 0; i < 1000; i++) {
+            scheduler.acquire("host" + i + ".example.com").get().close();
+        }
+
+        CompletableFuture<FetchScheduler.Permit> slow = scheduler.acquire("slow.example.com");
+
+        // Assert
+        assertFalse(slow.isDone());
+        slow.cancel(false);
+    }
+}
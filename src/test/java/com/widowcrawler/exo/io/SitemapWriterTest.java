@@ -0,0 +1,188 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.io;
+
+import com.widowcrawler.exo.model.ChangeFreq;
+import com.widowcrawler.exo.model.Sitemap;
+import com.widowcrawler.exo.model.SitemapURL;
+import com.widowcrawler.exo.parse.Parser;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class SitemapWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_allFields_readBackEqual() throws Exception {
+        // Arrange
+        Set<SitemapURL> urls = new HashSet<>();
+        urls.add(new SitemapURL.Builder()
+                .withLocation(new URL("http://www.example.com/caf\u00e9?q=1"))
+                .withLastModified(DateTime.parse("2015-03-01T10:15:00+05:30"))
+                .withChangeFrequency(ChangeFreq.WEEKLY)
+                .withPriority(0.8D)
+                .withIsMobileContent(true)
+                .build());
+        urls.add(new SitemapURL.Builder()
+                .withLocation(new URL("http://www.example.com/cafe"))
+                .withPriority(1.0D / 3.0D)
+                .withIsMobileContent(false)
+                .build());
+        urls.add(new SitemapURL.Builder()
+                .withLocation(new URL("https://other.example.org/"))
+                .build());
+
+        Path path = folder.getRoot().toPath().resolve("sitemap.exo");
+
+        // Act
+        SitemapWriter.write(new Sitemap(urls), path);
+        Sitemap read = SitemapReader.read(path);
+
+        // Assert
+        assertEquals(urls, read.getUrls());
+    }
+
+    @Test
+    public void write_streamedFromParser_readBackFromStream() throws Exception {
+        // Arrange
+        Sitemap expected = new Parser().parse(new FileInputStream("src/test/resources/example_sitemap_small.xml"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        try (SitemapWriter writer = new SitemapWriter(out)) {
+            new Parser().parse(new FileInputStream("src/test/resources/example_sitemap_small.xml"), writer);
+        }
+
+        Set<SitemapURL> read = new HashSet<>();
+        try (SitemapReader reader = new SitemapReader(new ByteArrayInputStream(out.toByteArray()))) {
+            reader.read(read::add);
+        }
+
+        // Assert
+        assertEquals(expected.getUrls(), read);
+        assertThat((long) out.size(), lessThan(new File("src/test/resources/example_sitemap_small.xml").length() / 4));
+    }
+
+    @Test
+    public void write_sitemap_locationsInWrittenOrder() throws Exception {
+        // Arrange
+        Set<SitemapURL> urls = new HashSet<>();
+        for (String location : new String[] {"http://b.example.com/", "http://A.EXAMPLE.COM/z", "http://a.example.com/y"}) {
+            urls.add(new SitemapURL.Builder().withLocation(new URL(location)).build());
+        }
+
+        Path path = folder.getRoot().toPath().resolve("sitemap.exo");
+        List<String> read = new ArrayList<>();
+
+        // Act
+        SitemapWriter.write(new Sitemap(urls), path);
+
+        try (SitemapReader reader = SitemapReader.open(path)) {
+            reader.read(sitemapURL -> read.add(sitemapURL.getLocation().toString()));
+        }
+
+        // Assert
+        assertThat(read, contains("http://A.EXAMPLE.COM/z", "http://a.example.com/y", "http://b.example.com/"));
+    }
+
+    @Test
+    public void write_dateOnlyLastModifiedInNamedDefaultZone_readBackEqual() throws Exception {
+        // Arrange
+        DateTimeZone defaultZone = DateTimeZone.getDefault();
+
+        try {
+            DateTimeZone.setDefault(DateTimeZone.forID("America/New_York"));
+
+            InputStream xml = new ByteArrayInputStream((
+                    "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                    "<url><loc>http://www.example.com/a</loc><lastmod>2015-03-01</lastmod></url>" +
+                    "<url><loc>http://www.example.com/b</loc><lastmod>2015-07-01</lastmod></url>" +
+                    "<url><loc>http://www.example.com/c</loc><lastmod>2015-03-01T10:00:00+05:30</lastmod></url>" +
+                    "</urlset>").getBytes(StandardCharsets.UTF_8));
+
+            Set<SitemapURL> urls = new HashSet<>(new Parser().parse(xml).getUrls());
+            urls.add(new SitemapURL.Builder()
+                    .withLocation(new URL("http://www.example.com/d"))
+                    .withLastModified(new DateTime(2015, 3, 1, 0, 0, DateTimeZone.forID("Europe/Berlin")))
+                    .build());
+
+            Sitemap sitemap = new Sitemap(urls);
+            Path path = folder.getRoot().toPath().resolve("sitemap.exo");
+
+            // Act
+            SitemapWriter.write(sitemap, path);
+            Sitemap read = SitemapReader.read(path);
+
+            // Assert
+            assertEquals(sitemap.getUrls(), read.getUrls());
+
+        } finally {
+            DateTimeZone.setDefault(defaultZone);
+        }
+    }
+
+    @Test
+    public void next_corruptChangeFreq_throwsIOException() throws Exception {
+        // Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SitemapWriter writer = new SitemapWriter(out)) {
+            writer.write(new SitemapURL.Builder()
+                    .withLocation(new URL("http://www.example.com/"))
+                    .withChangeFrequency(ChangeFreq.DAILY)
+                    .build());
+        }
+
+        // the changefreq is the last byte before the end marker
+        byte[] bytes = out.toByteArray();
+        bytes[bytes.length - 2] = 100;
+
+        // Act
+        try (SitemapReader reader = new SitemapReader(new ByteArrayInputStream(bytes))) {
+            reader.next();
+            fail("Expected the corrupt changefreq to be reported");
+
+        } catch (IOException ex) {
+            // Assert
+            assertThat(ex.getMessage(), startsWith("Corrupt sitemap file"));
+        }
+    }
+}
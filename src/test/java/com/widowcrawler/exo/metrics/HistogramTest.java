@@ -0,0 +1,83 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class HistogramTest {
+
+    @Test
+    public void getPercentile_uniformValues_withinBucketPrecision() throws Exception {
+        // Arrange
+        Histogram histogram = new Histogram();
+
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i);
+        }
+
+        // Act
+        long p50 = histogram.getPercentile(50);
+        long p99 = histogram.getPercentile(99);
+
+        // Assert
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100_000, histogram.getMax());
+        assertEquals(50_000.5D, histogram.getMean(), 0.001D);
+        assertThat(p50, allOf(greaterThanOrEqualTo(50_000L), lessThanOrEqualTo(56_250L)));
+        assertThat(p99, allOf(greaterThanOrEqualTo(99_000L), lessThanOrEqualTo(100_000L)));
+    }
+
+    @Test
+    public void bucketOf_anyValue_liesWithinItsBucket() throws Exception {
+        // Arrange
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+
+            // Act
+            int bucket = Histogram.bucketOf(value);
+
+            // Assert
+            assertThat(value, lessThanOrEqualTo(Histogram.upperBoundOf(bucket)));
+            assertThat(value, greaterThan(bucket == 0 ? -1L : Histogram.upperBoundOf(bucket - 1)));
+        }
+    }
+
+    @Test
+    public void getPercentile_empty_returnsZero() throws Exception {
+        // Arrange
+        Histogram histogram = new Histogram();
+
+        // Act
+        long p90 = histogram.getPercentile(90);
+
+        // Assert
+        assertEquals(0, p90);
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+    }
+}
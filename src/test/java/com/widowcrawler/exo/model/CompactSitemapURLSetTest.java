@@ -0,0 +1,182 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.model;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class CompactSitemapURLSetTest {
+
+    @Test
+    public void add_variedSitemapURLs_iteratesEqualToHashSet() throws Exception {
+        // Arrange
+        Set<SitemapURL> expected = new HashSet<>();
+
+        expected.add(new SitemapURL.Builder()
+                .withLocation(new URL("http://www.example.com/a?b=c"))
+                .withLastModified(new DateTime(2015, 3, 1, 12, 0, DateTimeZone.forOffsetHours(-8)))
+                .withChangeFrequency(ChangeFreq.NEVER)
+                .withPriority(0.8D)
+                .withIsMobileContent(true)
+                .build());
+
+        expected.add(new SitemapURL.Builder()
+                .withLocation(new URL("https://www.example.com/caf%C3%A9"))
+                .withLastModified(new DateTime(2015, 3, 1, 12, 0, DateTimeZone.forID("America/Los_Angeles")))
+                .withPriority(0.123456D)
+                .withIsMobileContent(false)
+                .build());
+
+        expected.add(new SitemapURL.Builder()
+                .withLocation(new URL("http://other.example.com:8080/"))
+                .withChangeFrequency(ChangeFreq.ALWAYS)
+                .build());
+
+        expected.add(new SitemapURL.Builder().build());
+
+        CompactSitemapURLSet compact = new CompactSitemapURLSet();
+
+        // Act
+        compact.addAll(expected);
+
+        // Assert
+        assertThat(compact.size(), is(expected.size()));
+        assertEquals(expected, new HashSet<>(compact));
+        assertEquals(expected, compact);
+    }
+
+    @Test
+    public void add_sameLocationSpelledDifferently_keepsOne() throws Exception {
+        // Arrange
+        CompactSitemapURLSet compact = new CompactSitemapURLSet();
+
+        SitemapURL a = new SitemapURL.Builder().withLocation(new URL("HTTP://WWW.Example.com:80/a%2fb#top")).build();
+        SitemapURL b = new SitemapURL.Builder().withLocation(new URL("http://www.example.com/a%2Fb")).build();
+
+        // Act
+        boolean addedA = compact.add(a);
+        boolean addedB = compact.add(b);
+
+        // Assert
+        assertTrue(addedA);
+        assertFalse(addedB);
+        assertThat(compact.size(), is(1));
+        assertThat(compact.iterator().next().getLocation().toString(), is("http://www.example.com/a%2Fb"));
+    }
+
+    @Test
+    public void contains_sameLocationOtherLastModified_returnsFalse() throws Exception {
+        // Arrange
+        CompactSitemapURLSet compact = new CompactSitemapURLSet();
+        DateTime lastModified = new DateTime(2015, 3, 1, 0, 0, DateTimeZone.UTC);
+
+        compact.add(new SitemapURL.Builder()
+                .withLocation(new URL("http://www.example.com/"))
+                .withLastModified(lastModified)
+                .build());
+
+        // Act
+        boolean same = compact.contains(new SitemapURL.Builder()
+                .withLocation(new URL("http://www.example.com/"))
+                .withLastModified(lastModified)
+                .build());
+
+        boolean other = compact.contains(new SitemapURL.Builder()
+                .withLocation(new URL("http://www.example.com/"))
+                .withLastModified(lastModified.plusDays(1))
+                .build());
+
+        boolean unknownHost = compact.contains(new SitemapURL.Builder()
+                .withLocation(new URL("http://unknown.example.com/"))
+                .build());
+
+        // Assert
+        assertTrue(same);
+        assertFalse(other);
+        assertFalse(unknownHost);
+    }
+
+    @Test
+    public void add_manySitemapURLs_growsAndKeepsEveryOne() throws Exception {
+        // Arrange
+        CompactSitemapURLSet compact = new CompactSitemapURLSet();
+        DateTime lastModified = new DateTime(2015, 3, 1, 0, 0, DateTimeZone.UTC);
+        int count = 50_000;
+
+        // Act
+        for (int i = 0; i < count; i++) {
+            compact.add(new SitemapURL.Builder()
+                    .withLocation(new URL("http://www" + (i % 7) + ".example.com/page/" + i))
+                    .withLastModified(lastModified.plusMinutes(i))
+                    .withPriority((i % 10) / 10.0D)
+                    .build());
+        }
+
+        compact.trimToSize();
+
+        // Assert
+        assertThat(compact.size(), is(count));
+        assertTrue(compact.contains(new SitemapURL.Builder()
+                .withLocation(new URL("http://www" + (12345 % 7) + ".example.com/page/12345"))
+                .withLastModified(lastModified.plusMinutes(12345))
+                .withPriority(0.5D)
+                .build()));
+    }
+
+    @Test
+    public void add_moreHostsThanFitInAShort_keepsEveryOne() throws Exception {
+        // Arrange
+        CompactSitemapURLSet compact = new CompactSitemapURLSet();
+        int count = Short.MAX_VALUE + 10_000;
+
+        // Act
+        for (int i = 0; i < count; i++) {
+            compact.add(new SitemapURL.Builder().withLocation(new URL("http://host" + i + ".example.com/")).build());
+        }
+
+        // Assert
+        assertThat(compact.size(), is(count));
+        assertTrue(compact.contains(new SitemapURL.Builder()
+                .withLocation(new URL("http://host" + (count - 1) + ".example.com/")).build()));
+    }
+
+    @Test
+    public void grow_nearLargestArray_staysPositive() {
+        // Act
+        int length = CompactSitemapURLSet.grow(1_500_000_000, 1_500_000_001L, "bytes");
+
+        // Assert
+        assertThat(length, is(CompactSitemapURLSet.MAX_ARRAY_LENGTH));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void grow_pastLargestArray_throws() {
+        // Act
+        CompactSitemapURLSet.grow(CompactSitemapURLSet.MAX_ARRAY_LENGTH, CompactSitemapURLSet.MAX_ARRAY_LENGTH + 1L, "bytes");
+    }
+}
@@ -19,10 +19,13 @@ import org.joda.time.DateTime;
 import org.junit.Test;
 
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
 /**
@@ -167,4 +170,70 @@ public class SitemapURLTest {
         // Assert
         assertFalse(equal);
     }
+
+    @Test
+    public void equals_locationsDifferingOnlyInCaseAndDefaultPort_returnsTrue() throws Exception {
+        // Arrange
+        SitemapURL a = new SitemapURL.Builder()
+                .withLocation(new URL("HTTP://WWW.Example.com:80/a%2fb#top"))
+                .build();
+
+        SitemapURL b = new SitemapURL.Builder()
+                .withLocation(new URL("http://www.example.com/a%2Fb"))
+                .build();
+
+        // Act
+        boolean equal = a.equals(b) && b.equals(a);
+
+        // Assert
+        assertTrue(equal);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals("http://www.example.com/a%2Fb", a.getNormalizedLocation());
+    }
+
+    @Test
+    public void equals_differentHostsOnSameAddress_returnsFalse() throws Exception {
+        // Arrange
+        SitemapURL a = new SitemapURL.Builder()
+                .withLocation(new URL("http://localhost/"))
+                .build();
+
+        SitemapURL b = new SitemapURL.Builder()
+                .withLocation(new URL("http://127.0.0.1/"))
+                .build();
+
+        // Act
+        boolean equal = a.equals(b) || b.equals(a);
+
+        // Assert
+        assertFalse(equal);
+    }
+
+    @Test
+    public void hashCode_realisticURLs_wellDistributed() throws Exception {
+        // Arrange
+        int count = 200_000;
+        ChangeFreq[] changeFreqs = ChangeFreq.values();
+        DateTime base = new DateTime(2015, 1, 1, 0, 0);
+        List<SitemapURL> urls = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            urls.add(new SitemapURL.Builder()
+                    .withLocation(new URL("https://www.example.com/category/" + (i % 97) + "/article-" + i + ".html"))
+                    .withLastModified(base.plusMinutes(i % 5000))
+                    .withChangeFrequency(changeFreqs[i % changeFreqs.length])
+                    .withPriority((i % 10) / 10.0D)
+                    .withIsMobileContent(i % 2 == 0)
+                    .build());
+        }
+
+        // Act
+        Set<Integer> hashes = new HashSet<>();
+        urls.forEach(url -> hashes.add(url.hashCode()));
+        Set<SitemapURL> set = new HashSet<>(urls);
+
+        // Assert
+        assertEquals(count, set.size());
+        assertThat(hashes.size(), greaterThan(count * 99 / 100));
+    }
 }
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.model;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class StripedSitemapURLSetTest {
+
+    private static SitemapURL sitemapURL(int i) throws Exception {
+        return new SitemapURL.Builder()
+                .withLocation(new URL("http://www" + (i % 7) + ".example.com/page/" + i))
+                .withPriority(i % 10 / 10.0)
+                .build();
+    }
+
+    @Test
+    public void add_fromManyThreads_keepsEveryURLOnce() throws Exception {
+        // Arrange
+        int threads = 8;
+        int perThread = 5_000;
+        Set<SitemapURL> set = new StripedSitemapURLSet(16, CompactSitemapURLSet::new);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // Act
+        // Every thread adds its own URLs, and half of the next thread's
+        for (int t = 0; t < threads; t++) {
+            final int first = t * perThread;
+
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = first; i < first + perThread + perThread / 2; i++) {
+                    set.add(sitemapURL(i % (threads * perThread)));
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Assert
+        Set<SitemapURL> expected = new HashSet<>();
+        for (int i = 0; i < threads * perThread; i++) {
+            expected.add(sitemapURL(i));
+        }
+
+        assertEquals(expected.size(), set.size());
+        assertEquals(expected, new HashSet<>(set));
+        assertTrue(set.contains(sitemapURL(12345)));
+        assertFalse(set.contains(sitemapURL(threads * perThread)));
+    }
+
+    @Test
+    public void add_singleStripe_behavesAsBackingSet() throws Exception {
+        // Arrange
+        Set<SitemapURL> set = new StripedSitemapURLSet(1, HashSet::new);
+
+        // Act
+        boolean first = set.add(sitemapURL(1));
+        boolean again = set.add(sitemapURL(1));
+        set.add(sitemapURL(2));
+        boolean removed = set.remove(sitemapURL(2));
+
+        // Assert
+        assertTrue(first);
+        assertFalse(again);
+        assertTrue(removed);
+        assertThat(set, contains(sitemapURL(1)));
+    }
+}
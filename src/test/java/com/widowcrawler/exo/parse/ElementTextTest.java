@@ -0,0 +1,161 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.parse;
+
+import com.widowcrawler.exo.model.ChangeFreq;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class ElementTextTest {
+
+    private static ElementText read(String content) throws Exception {
+        XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(
+                new StringReader("<a>" + content + "</a>"));
+
+        reader.nextTag();
+        return new ElementText().read(reader);
+    }
+
+    @Test
+    public void toDateTime_variousFormats_matchesDateTimeParse() throws Exception {
+        // Arrange
+        String[] values = {
+                "2015-03-01T12:34:56+00:00",
+                "2015-03-01T12:34:56Z",
+                "2015-03-01T12:34Z",
+                "2015-03-01T12:34:56.7-08:00",
+                "2015-03-01T12:34:56.789+05:45",
+                "2016-02-29T23:59:59-12:00",
+                "1969-12-31T23:59:59.999Z",
+                "2015-03-01T12:34:56.7891Z",
+                "2015-03-01T12:34:56+0100",
+                "2015-03-01",
+                "2015-03",
+                "2015"
+        };
+
+        for (String value : values) {
+            // Act
+            DateTime parsed = read(" " + value + "\n").toDateTime();
+
+            // Assert
+            assertEquals(value, DateTime.parse(value), parsed);
+        }
+    }
+
+    @Test
+    public void toDateTime_dateOnlyInOtherDefaultZones_matchesDateTimeParse() throws Exception {
+        // Arrange
+        DateTimeZone original = DateTimeZone.getDefault();
+        String[] zones = { "UTC", "America/Los_Angeles", "Asia/Kolkata", "Pacific/Chatham", "America/Sao_Paulo" };
+        String[] values = { "2015-03-01", "2016-02-29", "1969-12-31", "2015-03-08", "2015-11-01" };
+
+        try {
+            for (String zone : zones) {
+                DateTimeZone.setDefault(DateTimeZone.forID(zone));
+
+                for (String value : values) {
+                    // Act
+                    DateTime parsed = read(value).toDateTime();
+
+                    // Assert
+                    assertEquals(zone + " " + value, DateTime.parse(value), parsed);
+                }
+            }
+        } finally {
+            DateTimeZone.setDefault(original);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toDateTime_dateOnlyMidnightInDaylightSavingGap_throws() throws Exception {
+        // Arrange
+        DateTimeZone original = DateTimeZone.getDefault();
+        DateTimeZone.setDefault(DateTimeZone.forID("America/Sao_Paulo"));
+
+        try {
+            // Act: clocks went from 00:00 to 01:00 that day
+            read("2015-10-18").toDateTime();
+        } finally {
+            DateTimeZone.setDefault(original);
+        }
+    }
+
+    @Test
+    public void toDateTime_valueOnItsOwnLine_trimmed() throws Exception {
+        // Act
+        DateTime parsed = read("\n      2015-03-01T12:34:56Z\n    ").toDateTime();
+        ChangeFreq changeFreq = read("\n      weekly\n    ").toChangeFreq();
+
+        // Assert
+        assertEquals(DateTime.parse("2015-03-01T12:34:56Z"), parsed);
+        assertThat(changeFreq, is(ChangeFreq.WEEKLY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toDateTime_invalidDate_throws() throws Exception {
+        read("2015-02-29T00:00:00Z").toDateTime();
+    }
+
+    @Test
+    public void toPriority_variousFormats_matchesDoubleValueOf() throws Exception {
+        // Arrange
+        String[] values = { "0", "1", "0.5", "0.05", "1.0", ".3", "1.", "0.123", "0.1234567890123", "2.5", "1e-1", "-0.5" };
+
+        for (String value : values) {
+            // Act
+            Double parsed = read(value).toPriority();
+
+            // Assert
+            assertEquals(value, Double.valueOf(value), parsed);
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void toPriority_notANumber_throws() throws Exception {
+        read("high").toPriority();
+    }
+
+    @Test
+    public void toChangeFreq_anyCase_returnsValue() throws Exception {
+        // Act
+        ChangeFreq lower = read("daily").toChangeFreq();
+        ChangeFreq mixed = read(" Monthly ").toChangeFreq();
+        ChangeFreq cdata = read("<![CDATA[NEVER]]>").toChangeFreq();
+
+        // Assert
+        assertThat(lower, is(ChangeFreq.DAILY));
+        assertThat(mixed, is(ChangeFreq.MONTHLY));
+        assertThat(cdata, is(ChangeFreq.NEVER));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toChangeFreq_unknownValue_throws() throws Exception {
+        read("sometimes").toChangeFreq();
+    }
+}
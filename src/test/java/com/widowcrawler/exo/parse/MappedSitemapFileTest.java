@@ -0,0 +1,215 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.parse;
+
+import com.widowcrawler.exo.model.SitemapURL;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class MappedSitemapFileTest {
+
+    private static final long MIN_CHUNK_SIZE = 4096L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Parser parser;
+    private ForkJoinPool pool;
+
+    @Before
+    public void before() {
+        parser = new Parser();
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void after() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void parse_largeUrlset_sameURLsAsSequentialParse() throws Exception {
+        // Arrange
+        String doc = urlset("", 2000, -1);
+        Path path = write(doc);
+
+        // Act
+        Set<SitemapURL> parallel = ConcurrentHashMap.newKeySet();
+        parser.parse(path, Parser.concurrent(parallel::add), pool, MIN_CHUNK_SIZE);
+
+        // Assert
+        assertThat(chunks(path), greaterThan(10));
+        assertThat(parallel.size(), is(2000));
+        assertThat(parallel, equalTo(sequential(doc)));
+    }
+
+    @Test
+    public void parse_prefixedRoot_namespaceKeptInEveryChunk() throws Exception {
+        // Arrange
+        String doc = urlset("sm:", 2000, -1);
+        Path path = write(doc);
+
+        // Act
+        Set<SitemapURL> parallel = new HashSet<>();
+        parser.parse(path, parallel::add, pool, MIN_CHUNK_SIZE);
+
+        // Assert
+        assertThat(chunks(path), greaterThan(10));
+        assertThat(parallel.size(), is(2000));
+        assertThat(parallel, equalTo(sequential(doc)));
+    }
+
+    @Test
+    public void parse_malformedURLDeepInFile_reportsLineAndColumnInFile() throws Exception {
+        // Arrange
+        String doc = urlset("", 2000, 1500);
+        Path path = write(doc);
+
+        XMLStreamException expected = null;
+        try {
+            sequential(doc);
+        } catch (XMLStreamException ex) {
+            expected = ex;
+        }
+
+        // Act
+        XMLStreamException actual = null;
+        try {
+            parser.parse(path, url -> { }, pool, MIN_CHUNK_SIZE);
+        } catch (XMLStreamException ex) {
+            actual = ex;
+        }
+
+        // Assert
+        assertThat(expected, notNullValue());
+        assertThat(actual, notNullValue());
+        assertThat(actual.getLocation().getLineNumber(), is(expected.getLocation().getLineNumber()));
+        assertThat(actual.getLocation().getColumnNumber(), is(expected.getLocation().getColumnNumber()));
+        assertThat(actual.getMessage(), is(expected.getMessage()));
+    }
+
+    @Test
+    public void parse_gzippedFile_parsedSequentially() throws Exception {
+        // Arrange
+        String doc = urlset("", 2000, -1);
+        File file = folder.newFile("sitemap.xml.gz");
+
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file.toPath()))) {
+            out.write(doc.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Act
+        Set<SitemapURL> parsed = new HashSet<>();
+        parser.parse(file.toPath(), parsed::add, pool, MIN_CHUNK_SIZE);
+
+        // Assert
+        assertThat(chunks(file.toPath()), is(0));
+        assertThat(parsed, equalTo(sequential(doc)));
+    }
+
+    @Test
+    public void open_sitemapIndex_notSplit() throws Exception {
+        // Arrange
+        StringBuilder doc = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+        for (int i = 0; i < 500; i++) {
+            doc.append("  <sitemap><loc>http://example.com/sitemap").append(i).append(".xml</loc></sitemap>\n");
+        }
+        doc.append("</sitemapindex>\n");
+
+        // Act
+        int chunks = chunks(write(doc.toString()));
+
+        // Assert
+        assertThat(chunks, is(0));
+    }
+
+    @Test
+    public void open_fileEndingInOpeningBracket_notSplit() throws Exception {
+        // Act
+        int chunks = chunks(write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<"));
+
+        // Assert
+        assertThat(chunks, is(0));
+    }
+
+    /**
+     * A urlset whose urls span differing numbers of lines, with a non-ASCII character on each, and a
+     * mistyped closing tag in the url numbered malformed, if any.
+     */
+    private static String urlset(String prefix, int urls, int malformed) {
+        StringBuilder doc = new StringBuilder("\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<!-- generated -->\n")
+                .append("<").append(prefix).append("urlset xmlns").append(prefix.isEmpty() ? "" : ":" + prefix.substring(0, prefix.length() - 1))
+                .append("=\"http://www.sitemaps.org/schemas/sitemap/0.9\" note=\"a > b\">");
+
+        for (int i = 0; i < urls; i++) {
+            doc.append(i % 3 == 0 ? "\n  " : " ")
+                    .append("<").append(prefix).append("url>")
+                    .append(i % 2 == 0 ? "\n    " : "")
+                    .append("<").append(prefix).append("loc>http://example.com/caf\u00e9/").append(i)
+                    .append(i == malformed ? "</" + prefix + "lo>" : "</" + prefix + "loc>")
+                    .append("<").append(prefix).append("priority>0.5</").append(prefix).append("priority>")
+                    .append("</").append(prefix).append("url>");
+        }
+
+        return doc.append("\n</").append(prefix).append("urlset>\n").toString();
+    }
+
+    private Path write(String doc) throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, doc.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private Set<SitemapURL> sequential(String doc) throws Exception {
+        Set<SitemapURL> sitemapURLs = new HashSet<>();
+        new Parser().parse(new ByteArrayInputStream(doc.getBytes(StandardCharsets.UTF_8)), sitemapURLs::add);
+        return sitemapURLs;
+    }
+
+    private static int chunks(Path path) throws Exception {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedSitemapFile file = MappedSitemapFile.open(channel);
+            return file == null ? 0 : file.chunkStarts(MIN_CHUNK_SIZE).size();
+        }
+    }
+}
@@ -16,15 +16,40 @@
 
 package com.widowcrawler.exo.parse;
 
+import com.widowcrawler.exo.SitemapParseException;
 import com.widowcrawler.exo.model.Sitemap;
 import com.widowcrawler.exo.model.SitemapURL;
+import com.sun.net.httpserver.HttpServer;
+import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.xml.stream.XMLStreamException;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
 import static org.hamcrest.Matchers.*;
@@ -106,4 +131,323 @@ public class ParserTest {
 
         assertThat(sitemap.getUrls(), hasItem(sitemapURL));
     }
+
+    @Test
+    public void parse_streamingMediumDocument_emitsEveryURL() throws Exception {
+        // Arrange
+        Sitemap sitemap = new Parser().parse(new FileInputStream("src/test/resources/example_sitemap_small.xml"));
+        List<SitemapURL> streamed = new ArrayList<>();
+
+        // Act
+        parser.parse(new FileInputStream("src/test/resources/example_sitemap_small.xml"), streamed::add);
+
+        // Assert
+        assertThat(streamed.size(), greaterThan(0));
+        assertEquals(sitemap.getUrls(), new HashSet<>(streamed));
+    }
+
+    @Test
+    public void parse_sitemapIndex_streamsURLsOfChildSitemaps() throws Exception {
+        // Arrange
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/child.xml", exchange -> {
+            byte[] body = (
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                    " <url><loc>http://www.example.com/a</loc></url>" +
+                    " <url><loc>http://www.example.com/b</loc></url>" +
+                    "</urlset>").getBytes("utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        String child = "http://localhost:" + server.getAddress().getPort() + "/child.xml";
+        String doc =
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                " <sitemap>" +
+                "  <lastmod>2015-01-01</lastmod>" +
+                "  <loc>" + child + "</loc>" +
+                " </sitemap>" +
+                "</sitemapindex>";
+
+        List<SitemapURL> streamed = new ArrayList<>();
+
+        // Act
+        try {
+            parser.parse(new ByteArrayInputStream(doc.getBytes()), streamed::add);
+        } finally {
+            server.stop(0);
+        }
+
+        // Assert
+        assertEquals(2, streamed.size());
+        assertThat(streamed, hasItem(new SitemapURL.Builder().withLocation(new URL("http://www.example.com/a")).build()));
+        assertThat(streamed, hasItem(new SitemapURL.Builder().withLocation(new URL("http://www.example.com/b")).build()));
+    }
+
+    @Test
+    public void parse_sitemapIndexWithExecutor_respectsPerHostLimit() throws Exception {
+        // Arrange
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+
+            byte[] body = (
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                    " <url><loc>http://www.example.com" + exchange.getRequestURI().getPath() + "</loc></url>" +
+                    "</urlset>").getBytes("utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        StringBuilder doc = new StringBuilder(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
+        for (int i = 0; i < 6; i++) {
+            doc.append("<sitemap><loc>http://localhost:").append(server.getAddress().getPort())
+                    .append("/child").append(i).append("</loc></sitemap>");
+        }
+        doc.append("</sitemapindex>");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Set<SitemapURL> streamed = new HashSet<>();
+
+        // Act
+        try {
+            new Parser(executor, 2).parse(new ByteArrayInputStream(doc.toString().getBytes()), streamed::add);
+        } finally {
+            executor.shutdownNow();
+            server.stop(0);
+        }
+
+        // Assert
+        assertEquals(6, streamed.size());
+        assertThat(streamed, hasItem(new SitemapURL.Builder().withLocation(new URL("http://www.example.com/child5")).build()));
+        assertThat(maxInFlight.get(), lessThanOrEqualTo(2));
+    }
+
+    @Test(timeout = 10000)
+    public void parse_nestedIndexesOnOneHostWithExecutor_doesNotDeadlock() throws Exception {
+        // Arrange
+        Map<String, String> documents = new HashMap<>();
+        documents.put("http://www.example.com/index.xml",
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                " <sitemap><loc>http://www.example.com/nested.xml</loc></sitemap>" +
+                "</sitemapindex>");
+        documents.put("http://www.example.com/nested.xml",
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                " <sitemap><loc>http://www.example.com/leaf.xml</loc></sitemap>" +
+                "</sitemapindex>");
+        documents.put("http://www.example.com/leaf.xml",
+                "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                " <url><loc>http://www.example.com/page</loc></url>" +
+                "</urlset>");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Parser[] nested = new Parser[1];
+        nested[0] = new Parser((url, consumer) -> {
+            try {
+                nested[0].parse(new ByteArrayInputStream(documents.get(url).getBytes("utf-8")), consumer);
+            } catch (XMLStreamException ex) {
+                throw new IOException(ex);
+            }
+        }, executor, 1);
+
+        Set<SitemapURL> streamed = Collections.synchronizedSet(new HashSet<>());
+
+        // Act
+        try {
+            nested[0].parse(new ByteArrayInputStream(documents.get("http://www.example.com/index.xml").getBytes("utf-8")),
+                    streamed::add);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Assert
+        assertThat(streamed, contains(new SitemapURL.Builder().withLocation(new URL("http://www.example.com/page")).build()));
+    }
+
+    @Test(timeout = 10000)
+    public void parse_interruptedWhileWaitingForChildren_throwsSitemapParseException() throws Exception {
+        // Arrange
+        String index =
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                " <sitemap><loc>http://www.example.com/child.xml</loc></sitemap>" +
+                "</sitemapindex>";
+
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Returns once the child is loading, so the parsing thread can't run it inline and has to wait for it
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()) {
+            @Override
+            public void execute(Runnable task) {
+                super.execute(task);
+
+                try {
+                    loading.await();
+                } catch (InterruptedException ex) {
+                    // Only sent once the child is loading, so keep it for the parser to see
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        Parser blocking = new Parser((url, consumer) -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+        }, executor, 1);
+
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        AtomicBoolean interruptFlag = new AtomicBoolean();
+
+        Thread parsing = new Thread(() -> {
+            try {
+                blocking.parse(new ByteArrayInputStream(index.getBytes("utf-8")), url -> { });
+            } catch (Throwable ex) {
+                thrown.set(ex);
+            }
+            interruptFlag.set(Thread.currentThread().isInterrupted());
+        });
+
+        // Act
+        try {
+            parsing.start();
+            loading.await();
+            parsing.interrupt();
+            parsing.join();
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        // Assert
+        assertThat(thrown.get(), instanceOf(SitemapParseException.class));
+        assertTrue(interruptFlag.get());
+    }
+
+    @Test
+    public void parse_sameParserTwice_parsesBoth() throws Exception {
+        // Act
+        Sitemap first = parser.parse(new FileInputStream("src/test/resources/example_sitemap_tiny.xml"));
+        Sitemap second = parser.parse(new FileInputStream("src/test/resources/example_sitemap_tiny.xml"));
+
+        // Assert
+        assertThat(first.getUrls().size(), greaterThan(0));
+        assertEquals(first.getUrls(), second.getUrls());
+    }
+
+    @Test
+    public void parse_sharedAcrossThreads_allResultsEqual() throws Exception {
+        // Arrange
+        Sitemap expected = parser.parse(new FileInputStream("src/test/resources/example_sitemap_small.xml"));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Sitemap>> results = new ArrayList<>();
+
+        // Act
+        try {
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(() ->
+                        parser.parse(new FileInputStream("src/test/resources/example_sitemap_small.xml"))));
+            }
+
+            // Assert
+            for (Future<Sitemap> result : results) {
+                assertEquals(expected.getUrls(), result.get().getUrls());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void parse_gzippedDocument_parsesSameAsPlain() throws Exception {
+        // Arrange
+        Sitemap expected = parser.parse(new FileInputStream("src/test/resources/example_sitemap_small.xml"));
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+             InputStream plain = new FileInputStream("src/test/resources/example_sitemap_small.xml")) {
+            byte[] buffer = new byte[8192];
+            for (int read = plain.read(buffer); read != -1; read = plain.read(buffer)) {
+                gzip.write(buffer, 0, read);
+            }
+        }
+
+        // Act
+        Sitemap sitemap = parser.parse(new ByteArrayInputStream(compressed.toByteArray()));
+
+        // Assert
+        assertEquals(expected.getUrls(), sitemap.getUrls());
+    }
+
+    @Test
+    public void parse_sitemapIndexWithWatermarks_skipsUnmodifiedChildren() throws Exception {
+        // Arrange
+        List<String> fetched = Collections.synchronizedList(new ArrayList<>());
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            fetched.add(exchange.getRequestURI().getPath());
+
+            byte[] body = (
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                    "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                    " <url><loc>http://www.example.com" + exchange.getRequestURI().getPath() + "</loc></url>" +
+                    "</urlset>").getBytes("utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        String base = "http://localhost:" + server.getAddress().getPort();
+        String doc =
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">" +
+                " <sitemap><loc>" + base + "/old</loc><lastmod>2015-01-01T00:00:00Z</lastmod></sitemap>" +
+                " <sitemap><loc>" + base + "/new</loc><lastmod>2015-03-01T00:00:00Z</lastmod></sitemap>" +
+                " <sitemap><loc>" + base + "/undated</loc></sitemap>" +
+                " <sitemap><loc>" + base + "/own</loc><lastmod>2015-03-01T00:00:00Z</lastmod></sitemap>" +
+                "</sitemapindex>";
+
+        DateTime watermark = DateTime.parse("2015-02-01T00:00:00Z");
+        Map<String, DateTime> perChild = new HashMap<>();
+        perChild.put(base + "/own", DateTime.parse("2015-03-01T00:00:00Z"));
+
+        IndexWatermarks watermarks = new IndexWatermarks(watermark, perChild);
+        List<SitemapURL> streamed = new ArrayList<>();
+
+        // Act
+        try {
+            parser.parse(new ByteArrayInputStream(doc.getBytes()), null, streamed::add, watermarks);
+        } finally {
+            server.stop(0);
+        }
+
+        // Assert
+        assertThat(fetched, containsInAnyOrder("/new", "/undated"));
+        assertEquals(2, streamed.size());
+        assertEquals(DateTime.parse("2015-03-01T00:00:00Z"), watermarks.get(new URL(base + "/new")));
+    }
 }
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.parse;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class RobotsTxtTest {
+
+    // As strings, since URL.equals resolves host names
+    private static List<String> sitemaps(String robots) throws Exception {
+        return RobotsTxt.sitemaps(new ByteArrayInputStream(robots.getBytes("utf-8")),
+                new URL("https://www.example.com/robots.txt")).stream()
+                .map(URL::toString)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void sitemaps_directivesAnywhere_collectedInOrder() throws Exception {
+        // Arrange
+        String robots = "\uFEFFSitemap: https://www.example.com/sitemap_index.xml\n" +
+                "User-agent: *\n" +
+                "Disallow: /private # Sitemap: https://www.example.com/commented.xml\n" +
+                "\n" +
+                "  SITEMAP :https://cdn.example.com/news.xml.gz  \r\n" +
+                "sitemap: /relative.xml\n" +
+                "Sitemap: HTTPS://WWW.EXAMPLE.COM/sitemap_index.xml\n" +
+                "Sitemap:\n" +
+                "Sitemap: http://[broken\n" +
+                "Allow: /";
+
+        // Act
+        List<String> sitemaps = sitemaps(robots);
+
+        // Assert
+        assertThat(sitemaps, contains(
+                "https://www.example.com/sitemap_index.xml",
+                "https://cdn.example.com/news.xml.gz",
+                "https://www.example.com/relative.xml"));
+    }
+
+    @Test
+    public void sitemaps_noDirectives_empty() throws Exception {
+        assertThat(sitemaps("User-agent: *\nDisallow:\n"), is(empty()));
+        assertThat(sitemaps(""), is(empty()));
+    }
+
+    @Test
+    public void sitemaps_pastSizeLimit_ignored() throws Exception {
+        // Arrange
+        char[] padding = new char[RobotsTxt.MAX_BYTES];
+        Arrays.fill(padding, '#');
+
+        String robots = "Sitemap: /first.xml\n" + new String(padding) + "\nSitemap: /last.xml\n";
+
+        // Act
+        List<String> sitemaps = sitemaps(robots);
+
+        // Assert
+        assertThat(sitemaps, contains("https://www.example.com/first.xml"));
+    }
+}
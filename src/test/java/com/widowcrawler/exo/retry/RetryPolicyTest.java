@@ -0,0 +1,158 @@
+/**
+ * Copyright 2015 Scott Mansfield
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.widowcrawler.exo.retry;
+
+import com.widowcrawler.exo.HttpStatusException;
+import com.widowcrawler.exo.SitemapParseException;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Scott Mansfield
+ */
+public class RetryPolicyTest {
+
+    private static final RetryPolicy FAST = new RetryPolicy.Builder()
+            .withBaseDelay(1L)
+            .withMaxDelay(10L)
+            .build();
+
+    @Test
+    public void call_transientFailures_retriedUntilSuccess() throws Exception {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger retries = new AtomicInteger();
+
+        // Act
+        String result = FAST.call(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new HttpStatusException("unavailable", 503);
+            }
+            return "done";
+        }, (attempt, cause, delayMillis) -> retries.incrementAndGet());
+
+        // Assert
+        assertEquals("done", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2, retries.get());
+    }
+
+    @Test
+    public void call_permanentFailure_attemptedOnce() throws Exception {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+        HttpStatusException notFound = new HttpStatusException("not found", 404);
+
+        // Act
+        try {
+            FAST.call(() -> {
+                attempts.incrementAndGet();
+                throw notFound;
+            });
+            fail("Expected the policy to give up");
+
+        } catch (RetryFailedException ex) {
+            // Assert
+            assertSame(notFound, ex.getCause());
+        }
+
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void call_retryAfterPastDeadline_givesUp() throws Exception {
+        // Arrange
+        RetryPolicy policy = new RetryPolicy.Builder().withDeadline(1000L).build();
+        AtomicInteger attempts = new AtomicInteger();
+
+        // Act
+        long start = System.nanoTime();
+        try {
+            policy.call(() -> {
+                attempts.incrementAndGet();
+                throw new HttpStatusException("slow down", 429, TimeUnit.MINUTES.toMillis(5));
+            });
+            fail("Expected the policy to give up");
+
+        } catch (RetryFailedException ex) {
+            // expected
+        }
+
+        // Assert
+        assertEquals(1, attempts.get());
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(1000L));
+    }
+
+    @Test
+    public void delayMillis_fullJitter_staysUnderCappedBackoff() {
+        // Arrange
+        RetryPolicy policy = new RetryPolicy.Builder().withBaseDelay(100L).withMaxDelay(1000L).build();
+        IOException cause = new IOException("reset");
+
+        // Act / Assert
+        for (int i = 0; i < 1000; i++) {
+            assertThat(policy.delayMillis(1, cause), both(greaterThanOrEqualTo(0L)).and(lessThanOrEqualTo(100L)));
+            assertThat(policy.delayMillis(3, cause), lessThanOrEqualTo(400L));
+            assertThat(policy.delayMillis(40, cause), lessThanOrEqualTo(1000L));
+        }
+
+        assertEquals(2500L, policy.delayMillis(1, new HttpStatusException("busy", 503, 2500L)));
+    }
+
+    @Test
+    public void callAsync_transientFailure_retriedThenCompletes() throws Exception {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+
+        // Act
+        String result = FAST.callAsync(() -> {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            if (attempts.incrementAndGet() == 1) {
+                future.completeExceptionally(new IOException("connection reset"));
+            } else {
+                future.complete("done");
+            }
+            return future;
+        }, RetryListener.NONE).get(10, TimeUnit.SECONDS);
+
+        // Assert
+        assertEquals("done", result);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void transient_classifiesFailures() {
+        RetryClassifier classifier = RetryClassifier.TRANSIENT;
+
+        assertTrue(classifier.isRetryable(new HttpStatusException("slow down", 429)));
+        assertTrue(classifier.isRetryable(new HttpStatusException("unavailable", 503)));
+        assertFalse(classifier.isRetryable(new HttpStatusException("not found", 404)));
+        assertFalse(classifier.isRetryable(new HttpStatusException("not implemented", 501)));
+        assertTrue(classifier.isRetryable(new IOException("connection reset")));
+        assertFalse(classifier.isRetryable(new SitemapParseException("bad child", new IOException("reset"))));
+        assertFalse(classifier.isRetryable(new XMLStreamException("unexpected character")));
+        assertTrue(classifier.isRetryable(new XMLStreamException("truncated", new IOException("reset"))));
+    }
+}